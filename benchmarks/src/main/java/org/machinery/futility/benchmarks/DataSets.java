@@ -0,0 +1,48 @@
+package org.machinery.futility.benchmarks;
+
+import org.machinery.futility.analysis.Algorithms;
+import org.machinery.futility.analysis.structs.Control;
+import org.machinery.futility.analysis.structs.Genome;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Synthetic inputs shared by the benchmarks, at each combination of genome size and experiment depth. The control is
+ * always deeper than the experiment, so analyses normalize the control, as is usual.
+ */
+@State(Scope.Benchmark)
+public class DataSets
+{
+    private static final long SEED = 20160601L;
+    private static final double CONTROL_DEPTH = 0.8;
+
+    @Param({"1000000", "5000000"})
+    public int genomeSize;
+
+    @Param({"0.25", "0.6"})
+    public double depth;
+
+    public SyntheticData data;
+    public byte[] genomeTable;
+    public byte[] controlIgv;
+    public byte[] experimentIgv;
+    public Genome genome;
+    public Control control;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException
+    {
+        data = new SyntheticData(genomeSize, SEED);
+        genomeTable = data.genomeTable();
+        controlIgv = data.igv(CONTROL_DEPTH, 0);
+        experimentIgv = data.igv(depth, 1);
+        genome = Algorithms.analyzeGenome("genome", new ByteArrayInputStream(genomeTable));
+        control = Algorithms.analyzeControl("control", "genome", new ByteArrayInputStream(controlIgv));
+    }
+}
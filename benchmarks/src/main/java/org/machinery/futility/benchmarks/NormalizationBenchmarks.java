@@ -0,0 +1,47 @@
+package org.machinery.futility.benchmarks;
+
+import org.machinery.futility.analysis.Algorithms;
+import org.machinery.futility.analysis.AnalysisOptions;
+import org.machinery.futility.analysis.Normalization;
+import org.machinery.futility.analysis.structs.IgvTrack;
+import org.machinery.futility.analysis.structs.SequenceMeasurements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Normalizing the control down to the experiment's depth, the most expensive step of an analysis.
+ */
+public class NormalizationBenchmarks
+{
+    @State(Scope.Benchmark)
+    public static class Normalizer
+    {
+        @Param({"SAMPLED", "EXPECTED_VALUE"})
+        public Normalization.Mode mode;
+
+        public SequenceMeasurements experiment;
+        public AnalysisOptions options;
+
+        @Setup(Level.Trial)
+        public void prepare(final DataSets dataSets) throws IOException
+        {
+            experiment = Algorithms.analyzeControl("experiment", "genome",
+                    new ByteArrayInputStream(dataSets.experimentIgv)).getSequenceMeasurements();
+            options = new AnalysisOptions.Builder().withSeed(1L).withNormalizationMode(mode).build();
+        }
+    }
+
+    @Benchmark
+    public IgvTrack normalize(final DataSets dataSets, final Normalizer normalizer)
+    {
+        return Normalization.normalize(dataSets.control.getSequenceMeasurements(), normalizer.experiment,
+                normalizer.options);
+    }
+}
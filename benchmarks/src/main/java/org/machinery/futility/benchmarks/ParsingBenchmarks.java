@@ -0,0 +1,68 @@
+package org.machinery.futility.benchmarks;
+
+import org.machinery.futility.analysis.Algorithms;
+import org.machinery.futility.analysis.structs.Control;
+import org.machinery.futility.analysis.structs.Gene;
+import org.machinery.futility.analysis.structs.Genome;
+import org.machinery.futility.analysis.structs.IgvRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reading gene tables and IGV files, both line at a time through the String parsers and whole files through the
+ * byte-level ingestion behind {@link Algorithms}.
+ */
+public class ParsingBenchmarks
+{
+    @State(Scope.Benchmark)
+    public static class Lines
+    {
+        public String[] geneLines;
+        public String[] igvLines;
+
+        @Setup(Level.Trial)
+        public void split(final DataSets dataSets)
+        {
+            geneLines = new String(dataSets.genomeTable, StandardCharsets.US_ASCII).split("\n");
+            igvLines = new String(dataSets.experimentIgv, StandardCharsets.US_ASCII).split("\n");
+        }
+    }
+
+    @Benchmark
+    public void geneParseRecord(final Lines lines, final Blackhole blackhole)
+    {
+        for (final String line : lines.geneLines)
+        {
+            blackhole.consume(Gene.parseRecord(line));
+        }
+    }
+
+    @Benchmark
+    public void igvParseRecord(final Lines lines, final Blackhole blackhole)
+    {
+        for (final String line : lines.igvLines)
+        {
+            blackhole.consume(IgvRecord.parseRecord(line));
+        }
+    }
+
+    @Benchmark
+    public Genome analyzeGenome(final DataSets dataSets) throws IOException
+    {
+        return Algorithms.analyzeGenome("genome", new ByteArrayInputStream(dataSets.genomeTable));
+    }
+
+    @Benchmark
+    public Control analyzeControl(final DataSets dataSets) throws IOException
+    {
+        return Algorithms.analyzeControl("control", "genome", new ByteArrayInputStream(dataSets.controlIgv));
+    }
+}
@@ -0,0 +1,61 @@
+package org.machinery.futility.benchmarks;
+
+import org.machinery.futility.analysis.Algorithms;
+import org.machinery.futility.analysis.AnalysisOptions;
+import org.machinery.futility.analysis.structs.Experiment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A whole experiment analysis, from IGV bytes to gene features, against a control and genome analyzed beforehand.
+ */
+public class PipelineBenchmarks
+{
+    @State(Scope.Benchmark)
+    public static class Pipeline
+    {
+        // 0 runs on the calling thread; anything else is the parallelism of a pool.
+        @Param({"0", "4"})
+        public int parallelism;
+
+        public AnalysisOptions options;
+        private ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void prepare()
+        {
+            final AnalysisOptions.Builder builder = new AnalysisOptions.Builder().withSeed(1L);
+            if (parallelism > 0)
+            {
+                pool = new ForkJoinPool(parallelism);
+                builder.withPool(pool);
+            }
+            options = builder.build();
+        }
+
+        @TearDown(Level.Trial)
+        public void shutdown()
+        {
+            if (null != pool)
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Benchmark
+    public Experiment analyzeExperiment(final DataSets dataSets, final Pipeline pipeline) throws IOException
+    {
+        return Algorithms.analyzeExperiment("experiment", dataSets.genome, dataSets.control,
+                new ByteArrayInputStream(dataSets.experimentIgv), pipeline.options);
+    }
+}
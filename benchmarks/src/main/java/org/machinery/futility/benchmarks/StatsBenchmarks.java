@@ -0,0 +1,152 @@
+package org.machinery.futility.benchmarks;
+
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+import org.machinery.futility.analysis.stats.MultinomialDistribution;
+import org.machinery.futility.analysis.stats.Percentiles;
+import org.machinery.futility.analysis.stats.RankSumTest;
+import org.machinery.futility.analysis.structs.Genome;
+import org.machinery.futility.analysis.structs.IgvTrack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The statistics behind an analysis: read percentiles, multinomial sampling, and the per-gene rank-sum tests.
+ */
+public class StatsBenchmarks
+{
+    private static final double RED_THRESHOLD_PERCENTILE = 0.99999;
+
+    @State(Scope.Benchmark)
+    public static class Reads
+    {
+        public double[] reads;
+        // The experiment's reads and the control's, grouped by gene: gene g's are [offsets[g], offsets[g + 1]).
+        public double[] experimentByGene;
+        public double[] controlByGene;
+        public int[] offsets;
+
+        @Setup(Level.Trial)
+        public void prepare(final DataSets dataSets)
+        {
+            final IgvTrack control = dataSets.control.getSequenceMeasurements().getTrack();
+            reads = control.copyReads();
+
+            // Synthetic experiment reads at the control's sites, grouped by the control's genes.
+            final Genome genome = dataSets.genome;
+            offsets = new int[genome.getGeneCount() + 1];
+            final int[] genes = new int[control.size()];
+            for (int i = 0; i < genes.length; ++i)
+            {
+                final String name = control.getGeneName(i);
+                genes[i] = null == name ? -1 : genome.getGeneId(name);
+                if (genes[i] >= 0)
+                {
+                    ++offsets[genes[i] + 1];
+                }
+            }
+            for (int i = 1; i < offsets.length; ++i)
+            {
+                offsets[i] += offsets[i - 1];
+            }
+            controlByGene = new double[offsets[offsets.length - 1]];
+            experimentByGene = new double[controlByGene.length];
+            final int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+            final SplittableRandom random = new SplittableRandom(1);
+            for (int i = 0; i < genes.length; ++i)
+            {
+                if (genes[i] >= 0)
+                {
+                    final int slot = next[genes[i]]++;
+                    controlByGene[slot] = reads[i];
+                    experimentByGene[slot] = random.nextDouble() < dataSets.depth ? random.nextInt(100) : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * A control resampled down to the experiment's depth, as normalization does.
+     */
+    @State(Scope.Benchmark)
+    public static class Sampling
+    {
+        @Param({"BINARY_SEARCH", "CONDITIONAL_BINOMIAL"})
+        public MultinomialDistribution.Method method;
+
+        public MultinomialDistribution multinomial;
+        public int trials;
+
+        @Setup(Level.Trial)
+        public void prepare(final DataSets dataSets)
+        {
+            final double[] reads = dataSets.control.getSequenceMeasurements().getTrack().copyReads();
+            double total = 0;
+            for (final double read : reads)
+            {
+                total += read;
+            }
+            final double[] probabilities = new double[reads.length + 1];
+            for (int i = 0; i < reads.length; ++i)
+            {
+                probabilities[i] = dataSets.depth * reads[i] / total;
+            }
+            probabilities[reads.length] = 1 - dataSets.depth;
+            multinomial = new MultinomialDistribution(probabilities);
+            trials = (int) (total * dataSets.depth);
+        }
+    }
+
+    @Benchmark
+    public double[] atPercentile(final Reads reads)
+    {
+        return Percentiles.atPercentiles(reads.reads.clone(), RED_THRESHOLD_PERCENTILE);
+    }
+
+    @Benchmark
+    public int[] multinomialSample(final Sampling sampling)
+    {
+        return sampling.multinomial.sample(sampling.trials, sampling.method, new SplittableRandom(7));
+    }
+
+    @Benchmark
+    public void rankSumLoop(final Reads reads, final Blackhole blackhole)
+    {
+        final RankSumTest test = new RankSumTest();
+        for (int gene = 0; gene + 1 < reads.offsets.length; ++gene)
+        {
+            final int from = reads.offsets[gene];
+            final int to = reads.offsets[gene + 1];
+            if (to > from)
+            {
+                blackhole.consume(test.pValue(reads.controlByGene, from, to, reads.experimentByGene, from, to));
+            }
+        }
+    }
+
+    /**
+     * The commons-math test the rank-sum loop replaced, for comparison.
+     */
+    @Benchmark
+    public void commonsMannWhitneyLoop(final Reads reads, final Blackhole blackhole)
+    {
+        final MannWhitneyUTest test = new MannWhitneyUTest();
+        for (int gene = 0; gene + 1 < reads.offsets.length; ++gene)
+        {
+            final int from = reads.offsets[gene];
+            final int to = reads.offsets[gene + 1];
+            if (to > from)
+            {
+                blackhole.consume(test.mannWhitneyUTest(Arrays.copyOfRange(reads.controlByGene, from, to),
+                        Arrays.copyOfRange(reads.experimentByGene, from, to)));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.machinery.futility.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates a genome's gene table and IGV files for it, scaled by genome size and read depth. Generation is seeded,
+ * so every fork of a benchmark sees the same data.
+ *
+ * Genes are 300 to 1800 bases long, occasionally overlapping. TA sites are on average about 30 bases apart, and a
+ * site is hit with probability depth, with exponentially distributed reads averaging 40. A few genes are essential,
+ * hit at a twentieth of the usual rate.
+ */
+public final class SyntheticData
+{
+    private final int[] geneStarts;
+    private final int[] geneEnds;
+    private final int geneCount;
+    private final int genomeSize;
+    private final long seed;
+
+    public SyntheticData(final int genomeSize, final long seed)
+    {
+        this.genomeSize = genomeSize;
+        this.seed = seed;
+        final Random random = new Random(seed);
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        int count = 0;
+        int position = 100;
+        while (position < genomeSize - 2000)
+        {
+            if (count == starts.length)
+            {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            final int length = 300 + random.nextInt(1500);
+            starts[count] = position;
+            ends[count] = position + length;
+            ++count;
+            position += length + (random.nextInt(10) < 2 ? -50 : random.nextInt(300));
+        }
+        this.geneStarts = starts;
+        this.geneEnds = ends;
+        this.geneCount = count;
+    }
+
+    public int getGeneCount()
+    {
+        return geneCount;
+    }
+
+    /**
+     * @return a gene table: one "name start end" line per gene
+     */
+    public byte[] genomeTable()
+    {
+        final StringBuilder table = new StringBuilder(geneCount * 24);
+        for (int i = 0; i < geneCount; ++i)
+        {
+            table.append(geneName(i)).append('\t').append(geneStarts[i]).append('\t').append(geneEnds[i])
+                    .append('\n');
+        }
+        return table.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param depth fraction of TA sites with any reads, in (0, 1]
+     * @param sample distinguishes data sets of the same depth
+     * @return an IGV file covering every TA site of the genome
+     */
+    public byte[] igv(final double depth, final int sample)
+    {
+        // Sites depend only on the genome, so data sets of one genome line up, as real ones do.
+        final Random sites = new Random(seed);
+        final Random reads = new Random(seed * 31 + sample);
+        final StringBuilder igv = new StringBuilder(genomeSize);
+        int gene = 0;
+        for (int position = 10; position < genomeSize; position += 2 + sites.nextInt(60))
+        {
+            while (gene < geneCount && geneEnds[gene] <= position)
+            {
+                ++gene;
+            }
+            final boolean inGene = gene < geneCount && geneStarts[gene] <= position;
+            int count = reads.nextDouble() < depth ? (int) (1 - Math.log(reads.nextDouble()) * 40) : 0;
+            if (inGene && gene % 17 == 0 && reads.nextDouble() >= 0.05)
+            {
+                count = 0;
+            }
+            igv.append("chrom\t").append(position).append('\t').append(position + 1).append('\t').append(count);
+            if (inGene)
+            {
+                igv.append('\t').append(geneName(gene));
+            }
+            igv.append('\n');
+        }
+        return igv.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String geneName(final int gene)
+    {
+        return "gene" + gene;
+    }
+}
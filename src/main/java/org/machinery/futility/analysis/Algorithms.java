@@ -1,26 +1,43 @@
 package org.machinery.futility.analysis;
 
-import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
-import org.machinery.futility.analysis.stats.MultinomialDistribution;
+import org.machinery.futility.analysis.io.GeneTableParser;
+import org.machinery.futility.analysis.io.IgvParser;
+import org.machinery.futility.analysis.metrics.AnalysisListener;
+import org.machinery.futility.analysis.stats.QuantileSketch;
+import org.machinery.futility.analysis.stats.RankSumTest;
 import org.machinery.futility.analysis.structs.Control;
 import org.machinery.futility.analysis.structs.SequenceMeasurements;
 import org.machinery.futility.analysis.structs.Experiment;
 import org.machinery.futility.analysis.structs.Gene;
 import org.machinery.futility.analysis.structs.GeneFeatureMeasurements;
 import org.machinery.futility.analysis.structs.Genome;
-import org.machinery.futility.analysis.structs.IgvRecord;
+import org.machinery.futility.analysis.structs.IgvTrack;
+import org.machinery.futility.analysis.structs.ZoomPyramid;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * Entry point for analyzing various data sets. Input is an InputStream?
@@ -29,287 +46,188 @@ import java.util.PriorityQueue;
 public final class Algorithms
 {
 
-    private static final Comparator<IgvRecord> IGV_RECORD_COMPARATOR = new Comparator<IgvRecord>()
-    {
-        @Override
-        public int compare(final IgvRecord o1, final IgvRecord o2)
-        {
-            if (o1.getReads() < o2.getReads())
-            {
-                return -1;
-            }
-            if (o1.getReads() > o2.getReads())
-            {
-                return 1;
-            }
-            return 0;
-        }
-    };
+    private static final double RED_THRESHOLD_PERCENTILE = 0.99999;
+
+    // Fewest genes a parallel task tests, so tasks aren't dominated by scheduling.
+    private static final int MIN_GENES_PER_TASK = 64;
+    // Genes tested between polls of the cancellation.
+    private static final int GENES_PER_CHECK = 64;
 
-    private static final MannWhitneyUTest MWU_TEST = new MannWhitneyUTest();
+    private static final long MIN_INGEST_CHUNK_SIZE = 1 << 20;
 
 
     private Algorithms()
     {
     }
 
-    private static <T> void updateIndex(final Map<Integer, T> index, final T value, final int start,
-                                        final int end)
+    public static Genome analyzeGenome(final String name, final InputStream inputStream) throws IOException
     {
-        for (int i = start; i < end; ++i)
+        final GeneTableParser parser = new GeneTableParser();
+        try (ReadableByteChannel channel = Channels.newChannel(inputStream))
         {
-            index.put(i, value);
+            parser.parse(channel);
         }
+        final Map<String, Gene> geneMap = new HashMap<>();
+        for (final Gene gene : parser.getGenes())
+        {
+            geneMap.put(gene.getName(), gene);
+        }
+        return new Genome(name, geneMap, parser.getGenes());
     }
 
-    public static Genome analyzeGenome(final String name, final InputStream inputStream) throws IOException
+    private static IgvTrack.Builder newTrackBuilder(final AnalysisOptions options)
     {
-        final Map<String, Gene> geneMap = new HashMap<>();
-        final Map<Integer, String> index = new HashMap<>();
-        String line;
-        Gene gene;
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream)))
+        final IgvTrack.Builder builder = new IgvTrack.Builder();
+        if (options.getSketchAccuracy() > 0)
         {
-            do
-            {
-                line = reader.readLine();
-                if (null != line)
-                {
-                    gene = Gene.parseRecord(line);
-                    geneMap.put(gene.getName(), gene);
-                    updateIndex(index, gene.getName(), gene.getStart(), gene.getEnd());
-                }
-            }
-            while (null != line);
+            builder.withSketch(new QuantileSketch(options.getSketchAccuracy()));
         }
-        return new Genome(name, geneMap, index);
+        return builder;
     }
 
-    /**
-     * Finds the item at the provided percentile. Might make sense to lump this into the regular ingestion run,
-     * saving a traversal of the data. However, this is still a ton better than the javascript version
-     * @param percentile percentile to return item from
-     * @param data source of item
-     * @param comparator method of sorting
-     * @param <T> the type of data we're dealing with
-     * @return the item located at the given percentile, according to the comparator.
-     */
-    private static <T> T atPercentile(final double percentile, final List<T> data, final Comparator<T> comparator)
+    private static IgvTrack.Builder consumeDataSet(final InputStream inputStream, final AnalysisOptions options)
+            throws IOException
     {
-        final int thresholdIndex = (int) (percentile * data.size());
-        final int queueSize = data.size() - thresholdIndex;
-        // Construct a max queue
-        final PriorityQueue<T> queue = new PriorityQueue<>(queueSize, comparator);
-        for (final T datum : data)
+        final PhaseTimer timer = PhaseTimer.start(options.getListener());
+        final IgvParser parser = new IgvParser(newTrackBuilder(options));
+        parser.setCancellation(options.getCancellation());
+        try (ReadableByteChannel channel = Channels.newChannel(inputStream))
         {
-            if (queue.size() < queueSize)
-            {
-                queue.add(datum);
-            }
-            else
-            {
-                final T head = queue.peek();
-                if (comparator.compare(head, datum) <= 0) {
-                    queue.poll();
-                    queue.add(datum);
-                }
-            }
+            parser.parse(channel);
         }
-        // So, now the first item in the queue is the item at the given percentile.
-        return queue.peek();
+        final IgvTrack.Builder track = parser.getTrack();
+        ingested(options, timer, track, parser.getBytesRead());
+        return track;
     }
 
-    private static void consumeDataSet(final List<IgvRecord> rawData, final Map<Integer, Integer> index,
-                                       final Map<String, Integer> stats, final InputStream inputStream)
+    private static IgvTrack.Builder consumeDataSet(final FileChannel fileChannel, final AnalysisOptions options)
             throws IOException
     {
-        int count = 0;
-        int totalSiteReads = 0;
-        int siteHits = 0;
-
-        String line;
-        IgvRecord record;
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream)))
+        final PhaseTimer timer = PhaseTimer.start(options.getListener());
+        final ForkJoinPool pool = options.getPool();
+        final IgvTrack.Builder track;
+        if (null == pool)
+        {
+            final IgvParser parser = new IgvParser(newTrackBuilder(options));
+            parser.setCancellation(options.getCancellation());
+            parser.parse(fileChannel);
+            track = parser.getTrack();
+        }
+        else
         {
-            do
+            long chunkSize = options.getIngestChunkSize();
+            if (chunkSize == 0)
             {
-                line = reader.readLine();
-                if (null != line)
-                {
-                    record = IgvRecord.parseRecord(line);
-                    rawData.add(record);
-                    updateIndex(index, count, record.getStart(), record.getEnd());
-                    ++count;
-                    if (record.getReads() > 0)
-                    {
-                        ++siteHits;
-                        totalSiteReads += record.getReads();
-                    }
-                }
+                // A few pieces per worker evens out uneven line lengths without making merging the bottleneck.
+                chunkSize = Math.max(MIN_INGEST_CHUNK_SIZE, fileChannel.size() / (4L * pool.getParallelism()) + 1);
             }
-            while (null != line);
+            track = IgvParser.parseParallel(fileChannel, newTrackBuilder(options), pool, chunkSize,
+                    options.getCancellation());
         }
-        final int maxPosition = rawData.get(rawData.size() - 1).getEnd();
-        final int redThreshold = (int) atPercentile(0.99999, rawData, IGV_RECORD_COMPARATOR).getReads();
-        stats.put("linesRead", count);
-        stats.put("siteHits", siteHits);
-        stats.put("totalSiteReads", totalSiteReads);
+        ingested(options, timer, track, fileChannel.size());
+        return track;
+    }
+
+    private static void ingested(final AnalysisOptions options, final PhaseTimer timer, final IgvTrack.Builder track,
+                                 final long bytesRead)
+    {
+        timer.stop(AnalysisListener.Phase.INGEST);
+        options.getListener().counted(AnalysisListener.Counter.RECORDS_PARSED, track.getLinesRead());
+        options.getListener().counted(AnalysisListener.Counter.BYTES_READ, bytesRead);
+    }
+
+    private static SequenceMeasurements measure(final IgvTrack.Builder trackBuilder, final AnalysisOptions options)
+    {
+        options.getCancellation().check();
+        final PhaseTimer timer = PhaseTimer.start(options.getListener());
+        final Map<String, Integer> stats = new HashMap<>();
+        stats.put("linesRead", trackBuilder.getLinesRead());
+        stats.put("siteHits", trackBuilder.getSiteHits());
+        stats.put("totalSiteReads", trackBuilder.getTotalSiteReads());
+        final IgvTrack track = trackBuilder.build(options.getOffHeapMemory());
+        final SequenceMeasurements sequenceMeasurements =
+                new SequenceMeasurements(track, stats, trackBuilder.getSketch(), ZoomPyramid.build(track));
+        final int maxPosition = track.getEnd(track.size() - 1);
+        final int redThreshold = (int) sequenceMeasurements.readsAtPercentiles(RED_THRESHOLD_PERCENTILE)[0];
         stats.put("maxPosition", maxPosition);
         stats.put("redThreshold", redThreshold);
+        timer.stop(AnalysisListener.Phase.MEASURE);
+        return sequenceMeasurements;
     }
 
     public static Control analyzeControl(final String name, final String genomeName, final InputStream inputStream)
             throws IOException
     {
-        final List<IgvRecord> rawData = new ArrayList<>();
-        final Map<Integer, Integer> index = new HashMap<>();
-        final Map<String, Integer> stats = new HashMap<>();
-        consumeDataSet(rawData, index, stats, inputStream);
-        final SequenceMeasurements sequenceMeasurements = new SequenceMeasurements(rawData, index, stats);
-        return new Control(name, genomeName, sequenceMeasurements);
+        return analyzeControl(name, genomeName, inputStream, AnalysisOptions.defaults());
     }
 
-    private static int[][] performSampling(final SequenceMeasurements normalizee, final SequenceMeasurements normalizer)
+    public static Control analyzeControl(final String name, final String genomeName, final InputStream inputStream,
+                                         final AnalysisOptions options)
+            throws IOException
     {
-        final int normalizerCount = normalizer.getStats().get("siteHits");
-        final int normalizeeCount = normalizee.getStats().get("siteHits");
-        final int normalizerTotalSiteReads = normalizer.getStats().get("totalSiteReads");
-        final int normalizeeTotalSiteReads = normalizee.getStats().get("totalSiteReads");
-
-        final double proportion = normalizerCount / (double) normalizeeCount;
-        final List<IgvRecord> normalizeeRawData = normalizee.getRawData();
-
-        final double[] probabilityVector = new double[normalizeeRawData.size() + 1];
-        int index = 0;
-        for (final IgvRecord record : normalizeeRawData)
-        {
-            probabilityVector[index] = (proportion * record.getReads()) / normalizeeTotalSiteReads;
-            ++index;
-        }
-        probabilityVector[probabilityVector.length - 1] = 1 - proportion;
-        final int numSamples = 100;
-        final int[][] samples = new int[numSamples][];
-        final MultinomialDistribution multinomial = new MultinomialDistribution(probabilityVector);
-        for (int i = 0; i < numSamples; ++i)
-        {
-            samples[i] = multinomial.sample(normalizerTotalSiteReads);
-        }
-        return samples;
-    }
-
-    private static double[][] performCorrection(final int[][] samples, final int numExperiments)
-    {
-        // The original algorithm transposes the sample and goes to the end of the first
-        // column. We haven't transposed, so we go to the end of the first row. Still feels arbitrary, but...
-        // Original algorithm also made a matrix of this identical value, which I shouldn't need to do.
-        final int difference = numExperiments - samples[0][samples[0].length - 1];
-        final double correction = numExperiments / (double) difference;
-        final double[][] correctedData = new double[samples.length][];
-        for (int i = 0; i < samples.length; ++i)
-        {
-            final int[] row = samples[i];
-            // We use row.length - 1 to skip the extra element that we added during sampling (1 - proportion).
-            correctedData[i] = new double[row.length - 1];
-            for (int j = 0; j < row.length - 1; ++j)
-            {
-                correctedData[i][j] = row[j] * correction;
-            }
-        }
-        return correctedData;
+        return new Control(name, genomeName, measure(consumeDataSet(inputStream, options), options));
     }
 
     /**
-     * Takes a list of samples, all the same length, and averages each column
-     * to create a new, one-dimensional sample of the same length
-     * @param correctedSamples array of samples to combine
-     * @return single sample whtat is the average of correctedSamples
+     * Analyzes a control read straight from a file through memory mapping. The channel is left open.
      */
-    private static double[] collapseAndAverage(final double[][] correctedSamples)
+    public static Control analyzeControl(final String name, final String genomeName, final FileChannel fileChannel)
+            throws IOException
     {
-        final int numSamples = correctedSamples.length;
-        final int lengthOfSamples = correctedSamples[0].length;
-        final double[] averaged = new double[lengthOfSamples];
-        for (final double[] row : correctedSamples)
-        {
-            for (int colNum = 0; colNum < lengthOfSamples; ++colNum)
-            {
-                final double value = row[colNum] / numSamples;
-                averaged[colNum] += value;
-            }
-        }
-        return averaged;
+        return analyzeControl(name, genomeName, fileChannel, AnalysisOptions.defaults());
     }
 
-    private static List<IgvRecord> normalize(final SequenceMeasurements normalizee,
-                                             final SequenceMeasurements normalizer)
+    /**
+     * Analyzes a control read straight from a file through memory mapping. If options supply a pool, the file is
+     * split at line boundaries and the pieces are parsed in parallel. The channel is left open.
+     */
+    public static Control analyzeControl(final String name, final String genomeName, final FileChannel fileChannel,
+                                         final AnalysisOptions options)
+            throws IOException
     {
-        int[][] samples = performSampling(normalizee, normalizer);
-        double[][] correctedSamples = performCorrection(samples, normalizer.getStats().get("totalSiteReads"));
-        samples = null; // There's a lot of memory going on here, and this operation takes a bit.
-        double[] averaged = collapseAndAverage(correctedSamples);
-        correctedSamples = null; // There's a lot of memory going on here, and this operation takes a bit.
-        final List<IgvRecord> normalizedData = new ArrayList<>(averaged.length);
-        int index = 0;
-        for (final IgvRecord record : normalizee.getRawData())
-        {
-            normalizedData.add(new IgvRecord(record.getStart(), record.getEnd(), averaged[index], record.getGeneName()));
-            ++index;
-        }
-        return normalizedData;
+        return new Control(name, genomeName, measure(consumeDataSet(fileChannel, options), options));
     }
 
     /**
-     * Iterates over the raw data. For each position, if it corresponds to a gene, we add the number to the list of
-     * reads in the map for that gene's name. We return the total number of reads added.
-     * @param rawData igv data to iterate over
-     * @param readsMap initialize map of gene name to empty list
-     * @param genomeMap map of gene name to gene objects
-     * @return the total number of reads added
+     * Analyzes a control on executor rather than on the calling thread. Cancelling the returned future, or the
+     * options' cancellation, stops the analysis at its next check of its cancellation, and the future then fails with
+     * a {@link CancellationException}; if the options' cancellation passes its deadline, the future fails with a
+     * {@link TimeoutException} instead. The executor's thread reads the input and waits on the options' pool for the
+     * parallel phases, so an executor starting a virtual thread per task suits it where the JVM has them.
      */
-    private static double groupReadsByGene(final List<IgvRecord> rawData, final Map<String, List<Double>> readsMap,
-                                         final Map<String, Gene> genomeMap)
+    public static CompletableFuture<Control> analyzeControlAsync(final String name, final String genomeName,
+                                                                 final InputStream inputStream,
+                                                                 final AnalysisOptions options,
+                                                                 final Executor executor)
     {
-        double totalCount = 0;
-        for (final IgvRecord record : rawData)
+        return submit(options, executor, new Analysis<Control>()
         {
-            final String geneName = record.getGeneName();
-            if (null != geneName && genomeMap.containsKey(geneName))
+            @Override
+            public Control run(final AnalysisOptions runOptions) throws IOException
             {
-                final Gene gene = genomeMap.get(geneName);
-                final int site = record.getStart();
-                final int start = gene.getStart();
-                final int end = gene.getEnd();
-                final int geneLength = end - start;
-                if (start + (0.03 * geneLength) <= site && site <= (end - (0.03 * geneLength)))
-                {
-                    readsMap.get(geneName).add(record.getReads());
-                    totalCount += record.getReads();
-                }
+                return analyzeControl(name, genomeName, inputStream, runOptions);
             }
-        }
-        return totalCount;
-    }
-
-    private static double sum(final List<Double> toSum)
-    {
-        double sum = 0;
-        for (final double num : toSum)
-        {
-            sum += num;
-        }
-        return sum;
+        });
     }
 
-    private static double[] toDoubleArray(final List<Double> doubles)
+    /**
+     * Analyzes a control read straight from a file on executor, as
+     * {@link #analyzeControlAsync(String, String, InputStream, AnalysisOptions, Executor)} does. The channel is left
+     * open.
+     */
+    public static CompletableFuture<Control> analyzeControlAsync(final String name, final String genomeName,
+                                                                 final FileChannel fileChannel,
+                                                                 final AnalysisOptions options,
+                                                                 final Executor executor)
     {
-        final double[] array = new double[doubles.size()];
-        int index = 0;
-        for (final double num : doubles)
+        return submit(options, executor, new Analysis<Control>()
         {
-            array[index] = num;
-            ++index;
-        }
-        return array;
+            @Override
+            public Control run(final AnalysisOptions runOptions) throws IOException
+            {
+                return analyzeControl(name, genomeName, fileChannel, runOptions);
+            }
+        });
     }
 
     private static void replacePWithBhq(final GeneFeatureMeasurements.Builder[] arr)
@@ -366,35 +284,126 @@ public final class Algorithms
     }
 
     private static Map<String, GeneFeatureMeasurements> deriveFeatures(final Genome genome,
-                                                                       final Control control,
+                                                                       final PreparedControl preparedControl,
                                                                        final String name,
-                                                                       final SequenceMeasurements experimentMeasurements)
+                                                                       final SequenceMeasurements experiment,
+                                                                       final AnalysisOptions options)
     {
+        final Control control = preparedControl.getControl();
         final SequenceMeasurements controlMeasurements = control.getSequenceMeasurements();
-        final List<IgvRecord> rawControlData, rawExperimentData;
-        if (controlMeasurements.getStats().get("siteHits") >= experimentMeasurements.getStats().get("siteHits"))
+        final AnalysisListener listener = options.getListener();
+        PhaseTimer timer = PhaseTimer.start(listener);
+        final IgvTrack rawControlData, rawExperimentData;
+        if (controlMeasurements.getStats().get("siteHits") >= experiment.getStats().get("siteHits"))
         {
-            rawControlData = normalize(controlMeasurements, experimentMeasurements);
-            rawExperimentData = experimentMeasurements.getRawData();
+            rawControlData = normalizeControl(control, experiment.getStats().get("siteHits"),
+                    experiment.getStats().get("totalSiteReads"), options);
+            rawExperimentData = experiment.getTrack();
         }
         else
         {
-            rawControlData = controlMeasurements.getRawData();
-            rawExperimentData = normalize(experimentMeasurements, controlMeasurements);
+            rawControlData = controlMeasurements.getTrack();
+            rawExperimentData = Normalization.normalize(experiment, controlMeasurements, options);
         }
+        timer.stop(AnalysisListener.Phase.NORMALIZE);
 
-        final Map<String, List<Double>> controlReads = new HashMap<>();
-        final Map<String, List<Double>> experimentReads = new HashMap<>();
-        for (final String geneName : genome.getMap().keySet())
+        timer = PhaseTimer.start(listener);
+        final GeneGrouping.GroupedReads controlReads = preparedControl.groupControl(rawControlData);
+        final GeneGrouping.GroupedReads experimentReads = preparedControl.groupExperiment(rawExperimentData);
+        timer.stop(AnalysisListener.Phase.GROUP);
+
+        return features(genome, name, controlReads, experimentReads, options);
+    }
+
+    /**
+     * Derives an experiment's features from reads streamed by a {@link StreamedExperiment}, as
+     * {@link #deriveFeatures(Genome, PreparedControl, String, SequenceMeasurements, AnalysisOptions)} does from a
+     * fully ingested one.
+     */
+    private static Map<String, GeneFeatureMeasurements> deriveFeatures(final Genome genome,
+                                                                       final PreparedControl preparedControl,
+                                                                       final String name,
+                                                                       final StreamedExperiment experiment,
+                                                                       final AnalysisOptions options)
+    {
+        final Control control = preparedControl.getControl();
+        final SequenceMeasurements controlMeasurements = control.getSequenceMeasurements();
+        final AnalysisListener listener = options.getListener();
+        final GeneGrouping.GroupedReads controlReads, experimentReads;
+        if (controlMeasurements.getStats().get("siteHits") >= experiment.getSiteHits())
+        {
+            PhaseTimer timer = PhaseTimer.start(listener);
+            final IgvTrack rawControlData = normalizeControl(control, experiment.getSiteHits(),
+                    experiment.getTotalSiteReads(), options);
+            timer.stop(AnalysisListener.Phase.NORMALIZE);
+
+            timer = PhaseTimer.start(listener);
+            controlReads = preparedControl.groupControl(rawControlData);
+            experimentReads = experiment.group();
+            timer.stop(AnalysisListener.Phase.GROUP);
+        }
+        else
+        {
+            // The experiment's reads are only kept grouped, so they're normalized after grouping.
+            PhaseTimer timer = PhaseTimer.start(listener);
+            controlReads = preparedControl.groupControl(controlMeasurements.getTrack());
+            final GeneGrouping.GroupedReads rawExperimentReads = experiment.group();
+            timer.stop(AnalysisListener.Phase.GROUP);
+
+            timer = PhaseTimer.start(listener);
+            experimentReads = experiment.normalize(rawExperimentReads, controlMeasurements.getStats().get("siteHits"),
+                    controlMeasurements.getStats().get("totalSiteReads"), options);
+            timer.stop(AnalysisListener.Phase.NORMALIZE);
+        }
+        return features(genome, name, controlReads, experimentReads, options);
+    }
+
+    private static IgvTrack normalizeControl(final Control control, final int experimentSiteHits,
+                                             final int experimentTotalSiteReads, final AnalysisOptions options)
+    {
+        final NormalizedControlCache controlCache = options.getControlCache();
+        return null == controlCache
+                ? Normalization.normalize(control.getSequenceMeasurements(), experimentSiteHits,
+                        experimentTotalSiteReads, options)
+                : controlCache.normalize(control, experimentSiteHits, experimentTotalSiteReads, options);
+    }
+
+    private static Map<String, GeneFeatureMeasurements> features(final Genome genome, final String name,
+                                                                 final GeneGrouping.GroupedReads controlReads,
+                                                                 final GeneGrouping.GroupedReads experimentReads,
+                                                                 final AnalysisOptions options)
+    {
+        final AnalysisListener listener = options.getListener();
+        options.getCancellation().check();
+        PhaseTimer timer = PhaseTimer.start(listener);
+        final double minControlReads = controlReads.getTotal() / 10000;
+        final double minExperimentReads = experimentReads.getTotal() / 10000;
+        final double[] pValues = new double[genome.getGeneCount()];
+        final RankSumTask rankSums = new RankSumTask(controlReads, experimentReads, pValues,
+                options.getCancellation(), 0, pValues.length,
+                null == options.getPool()
+                        ? pValues.length
+                        : Math.max(MIN_GENES_PER_TASK, pValues.length / (4 * options.getPool().getParallelism())));
+        if (null == options.getPool())
         {
-            controlReads.put(geneName, new ArrayList<Double>());
-            experimentReads.put(geneName, new ArrayList<Double>());
+            rankSums.compute();
         }
+        else
+        {
+            options.getPool().invoke(rankSums);
+        }
+        timer.stop(AnalysisListener.Phase.RANK_SUM);
+        int genesTested = 0;
+        for (int geneId = 0; geneId < pValues.length; ++geneId)
+        {
+            if (controlReads.count(geneId) > 0)
+            {
+                ++genesTested;
+            }
+        }
+        listener.counted(AnalysisListener.Counter.GENES_TESTED, genesTested);
 
-        final double totalControlReads = groupReadsByGene(rawControlData, controlReads, genome.getMap());
-        final double totalExperimentReads = groupReadsByGene(rawExperimentData, experimentReads, genome.getMap());
-        final double minControlReads = totalControlReads / 10000;
-        final double minExperimentReads = totalExperimentReads / 10000;
+        timer = PhaseTimer.start(listener);
 
         // We'll make a map of builders first, as we need to modify some values after accumulating the list
         // but before creating the immutable feature measurements
@@ -402,28 +411,16 @@ public final class Algorithms
         for (final String geneName : genome.getMap().keySet())
         {
             final Gene gene = genome.getMap().get(geneName);
+            final int geneId = genome.getGeneId(geneName);
             final int geneLength = gene.getEnd() - gene.getStart();
-            final List<Double> controlReadsList = controlReads.get(geneName);
-            final List<Double> experimentReadsList = experimentReads.get(geneName);
 
-            final double p;
-            // Both lists should be of the same length, so just check one
-            if (controlReadsList.isEmpty())
-            {
-                p = 0.0;
-            }
-            else
-            {
-                p = MWU_TEST.mannWhitneyUTest(toDoubleArray(controlReadsList),
-                        toDoubleArray(experimentReadsList));
-            }
             final GeneFeatureMeasurements.Builder featureBuilder = new GeneFeatureMeasurements.Builder()
                     .withCondition(name)
-                    .withNumTASites(controlReadsList.size())
-                    .withNumControlReads(sum(controlReadsList))
-                    .withNumExperimentReads(sum(experimentReadsList))
+                    .withNumTASites(controlReads.count(geneId))
+                    .withNumControlReads(controlReads.sum(geneId))
+                    .withNumExperimentReads(experimentReads.sum(geneId))
                     .withGeneLength(geneLength)
-                    .withP(p);
+                    .withP(pValues[geneId]);
 
             final double significantControlReads = Math.max(featureBuilder.getNumControlReads(), minControlReads);
             final double significantExperimentReads = Math.max(featureBuilder.getNumExperimentReads(), minExperimentReads);
@@ -437,7 +434,11 @@ public final class Algorithms
         }
         GeneFeatureMeasurements.Builder[] featuresArray =
                 featureBuilders.values().toArray(new GeneFeatureMeasurements.Builder[featureBuilders.size()]);
+        timer.stop(AnalysisListener.Phase.FEATURES);
+        timer = PhaseTimer.start(listener);
         replacePWithBhq(featuresArray);
+        timer.stop(AnalysisListener.Phase.BH_CORRECTION);
+        timer = PhaseTimer.start(listener);
         correctIndex(featuresArray);
         // We updated the objects through references, so now we can null out the large arrays while we do the final copy
         featuresArray = null;
@@ -446,6 +447,7 @@ public final class Algorithms
         {
             features.put(geneName, featureBuilders.get(geneName).build());
         }
+        timer.stop(AnalysisListener.Phase.FITNESS_INDEX);
         return features;
     }
 
@@ -453,12 +455,378 @@ public final class Algorithms
                                                final InputStream inputStream)
             throws IOException
     {
-        final List<IgvRecord> rawData = new ArrayList<>();
-        final Map<Integer, Integer> index = new HashMap<>();
-        final Map<String, Integer> stats = new HashMap<>();
-        consumeDataSet(rawData, index, stats, inputStream);
-        final SequenceMeasurements sequenceMeasurements = new SequenceMeasurements(rawData, index, stats);
-        final Map<String, GeneFeatureMeasurements> features = deriveFeatures(genome, control, name, sequenceMeasurements);
-        return new Experiment(name, genome.getName(), control.getName(), sequenceMeasurements, features);
+        return analyzeExperiment(name, genome, control, inputStream, AnalysisOptions.defaults());
+    }
+
+    public static Experiment analyzeExperiment(final String name, final Genome genome, final Control control,
+                                               final InputStream inputStream, final AnalysisOptions options)
+            throws IOException
+    {
+        return experiment(name, genome, control, measure(consumeDataSet(inputStream, options), options), options);
+    }
+
+    /**
+     * Analyzes an experiment read straight from a file through memory mapping. The channel is left open.
+     */
+    public static Experiment analyzeExperiment(final String name, final Genome genome, final Control control,
+                                               final FileChannel fileChannel)
+            throws IOException
+    {
+        return analyzeExperiment(name, genome, control, fileChannel, AnalysisOptions.defaults());
+    }
+
+    /**
+     * Analyzes an experiment read straight from a file through memory mapping. If options supply a pool, the file is
+     * split at line boundaries and the pieces are parsed in parallel. The channel is left open.
+     */
+    public static Experiment analyzeExperiment(final String name, final Genome genome, final Control control,
+                                               final FileChannel fileChannel, final AnalysisOptions options)
+            throws IOException
+    {
+        return experiment(name, genome, control, measure(consumeDataSet(fileChannel, options), options), options);
+    }
+
+    /**
+     * Analyzes an experiment on executor, as
+     * {@link #analyzeControlAsync(String, String, InputStream, AnalysisOptions, Executor)} does a control.
+     */
+    public static CompletableFuture<Experiment> analyzeExperimentAsync(final String name, final Genome genome,
+                                                                       final Control control,
+                                                                       final InputStream inputStream,
+                                                                       final AnalysisOptions options,
+                                                                       final Executor executor)
+    {
+        return submit(options, executor, new Analysis<Experiment>()
+        {
+            @Override
+            public Experiment run(final AnalysisOptions runOptions) throws IOException
+            {
+                return analyzeExperiment(name, genome, control, inputStream, runOptions);
+            }
+        });
+    }
+
+    /**
+     * Analyzes an experiment read straight from a file on executor, as
+     * {@link #analyzeControlAsync(String, String, InputStream, AnalysisOptions, Executor)} does a control. The
+     * channel is left open.
+     */
+    public static CompletableFuture<Experiment> analyzeExperimentAsync(final String name, final Genome genome,
+                                                                       final Control control,
+                                                                       final FileChannel fileChannel,
+                                                                       final AnalysisOptions options,
+                                                                       final Executor executor)
+    {
+        return submit(options, executor, new Analysis<Experiment>()
+        {
+            @Override
+            public Experiment run(final AnalysisOptions runOptions) throws IOException
+            {
+                return analyzeExperiment(name, genome, control, fileChannel, runOptions);
+            }
+        });
+    }
+
+    public static Map<String, GeneFeatureMeasurements> analyzeExperimentFeatures(final String name,
+                                                                                 final Genome genome,
+                                                                                 final Control control,
+                                                                                 final InputStream inputStream)
+            throws IOException
+    {
+        return analyzeExperimentFeatures(name, genome, control, inputStream, AnalysisOptions.defaults());
+    }
+
+    /**
+     * Analyzes an experiment for its gene features alone, streaming its IGV data straight into each gene's reads and
+     * the hit and read counters. No track or {@link SequenceMeasurements} is built, so memory only grows with the
+     * number of sites inside genes. The features are those {@link #analyzeExperiment} finds, except that when the
+     * experiment is deeper than the control and normalized by seeded sampling, the draws differ; see
+     * {@link StreamedExperiment#normalize}.
+     */
+    public static Map<String, GeneFeatureMeasurements> analyzeExperimentFeatures(final String name,
+                                                                                 final Genome genome,
+                                                                                 final Control control,
+                                                                                 final InputStream inputStream,
+                                                                                 final AnalysisOptions options)
+            throws IOException
+    {
+        final PreparedControl preparedControl = new PreparedControl(genome, control, options.getPool());
+        final PhaseTimer timer = PhaseTimer.start(options.getListener());
+        final StreamedExperiment experiment = new StreamedExperiment(genome, preparedControl.getGrouping());
+        experiment.setCancellation(options.getCancellation());
+        try (ReadableByteChannel channel = Channels.newChannel(inputStream))
+        {
+            experiment.parse(channel);
+        }
+        streamed(options, timer, experiment);
+        return deriveFeatures(genome, preparedControl, name, experiment, options);
+    }
+
+    public static Map<String, GeneFeatureMeasurements> analyzeExperimentFeatures(final String name,
+                                                                                 final Genome genome,
+                                                                                 final Control control,
+                                                                                 final FileChannel fileChannel)
+            throws IOException
+    {
+        return analyzeExperimentFeatures(name, genome, control, fileChannel, AnalysisOptions.defaults());
+    }
+
+    /**
+     * As {@link #analyzeExperimentFeatures(String, Genome, Control, InputStream, AnalysisOptions)}, reading the file
+     * through memory mapping. The channel is left open.
+     */
+    public static Map<String, GeneFeatureMeasurements> analyzeExperimentFeatures(final String name,
+                                                                                 final Genome genome,
+                                                                                 final Control control,
+                                                                                 final FileChannel fileChannel,
+                                                                                 final AnalysisOptions options)
+            throws IOException
+    {
+        final PreparedControl preparedControl = new PreparedControl(genome, control, options.getPool());
+        final PhaseTimer timer = PhaseTimer.start(options.getListener());
+        final StreamedExperiment experiment = new StreamedExperiment(genome, preparedControl.getGrouping());
+        experiment.setCancellation(options.getCancellation());
+        experiment.parse(fileChannel);
+        streamed(options, timer, experiment);
+        return deriveFeatures(genome, preparedControl, name, experiment, options);
+    }
+
+    private static void streamed(final AnalysisOptions options, final PhaseTimer timer,
+                                 final StreamedExperiment experiment)
+    {
+        timer.stop(AnalysisListener.Phase.INGEST);
+        options.getListener().counted(AnalysisListener.Counter.RECORDS_PARSED, experiment.getLinesRead());
+        options.getListener().counted(AnalysisListener.Counter.BYTES_READ, experiment.getBytesRead());
+    }
+
+    private static Experiment experiment(final String name, final Genome genome, final Control control,
+                                         final SequenceMeasurements sequenceMeasurements,
+                                         final AnalysisOptions options)
+    {
+        return experiment(name, genome, new PreparedControl(genome, control, options.getPool()), sequenceMeasurements,
+                options);
+    }
+
+    private static Experiment experiment(final String name, final Genome genome, final PreparedControl control,
+                                         final SequenceMeasurements sequenceMeasurements,
+                                         final AnalysisOptions options)
+    {
+        final Map<String, GeneFeatureMeasurements> features =
+                deriveFeatures(genome, control, name, sequenceMeasurements, options);
+        return new Experiment(name, genome.getName(), control.getControl().getName(), sequenceMeasurements, features);
+    }
+
+    public static Map<String, Experiment> analyzeExperiments(final Genome genome, final Control control,
+                                                             final Map<String, InputStream> inputStreams)
+            throws IOException
+    {
+        return analyzeExperiments(genome, control, inputStreams, AnalysisOptions.defaults());
+    }
+
+    /**
+     * Analyzes several experiments against one control. Work on the control and genome that every experiment needs,
+     * such as grouping the control's reads by gene, is done once and shared. If options supply a pool, up to
+     * {@link AnalysisOptions#getMaxConcurrentExperiments()} experiments are ingested and analyzed at once on it;
+     * otherwise they're analyzed one after another on the calling thread.
+     * @param inputStreams experiment name to its IGV data. Each stream is closed once it has been read.
+     * @return experiment name to its analysis, in the iteration order of inputStreams
+     */
+    public static Map<String, Experiment> analyzeExperiments(final Genome genome, final Control control,
+                                                             final Map<String, InputStream> inputStreams,
+                                                             final AnalysisOptions options)
+            throws IOException
+    {
+        final PreparedControl preparedControl = new PreparedControl(genome, control, options.getPool());
+        final List<String> names = new ArrayList<>(inputStreams.keySet());
+        final Experiment[] experiments = new Experiment[names.size()];
+        final ForkJoinPool pool = options.getPool();
+        if (null == pool)
+        {
+            for (int i = 0; i < experiments.length; ++i)
+            {
+                final String name = names.get(i);
+                experiments[i] = experiment(name, genome, preparedControl,
+                        measure(consumeDataSet(inputStreams.get(name), options), options), options);
+            }
+        }
+        else
+        {
+            // A fixed number of workers take experiments in turn, which bounds how many tracks are held at once.
+            final AtomicInteger next = new AtomicInteger();
+            final int workerCount = Math.min(experiments.length, options.getMaxConcurrentExperiments() > 0
+                    ? options.getMaxConcurrentExperiments()
+                    : pool.getParallelism());
+            final List<Callable<Void>> workers = new ArrayList<>(workerCount);
+            for (int w = 0; w < workerCount; ++w)
+            {
+                workers.add(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        for (int i = next.getAndIncrement(); i < experiments.length; i = next.getAndIncrement())
+                        {
+                            final String name = names.get(i);
+                            experiments[i] = experiment(name, genome, preparedControl,
+                                    measure(consumeDataSet(inputStreams.get(name), options), options), options);
+                        }
+                        return null;
+                    }
+                });
+            }
+            try
+            {
+                for (final Future<Void> worker : pool.invokeAll(workers))
+                {
+                    worker.get();
+                }
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while analyzing experiments");
+            }
+            catch (final ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        final Map<String, Experiment> analyzed = new LinkedHashMap<>();
+        for (int i = 0; i < experiments.length; ++i)
+        {
+            analyzed.put(names.get(i), experiments[i]);
+        }
+        return analyzed;
+    }
+
+    /**
+     * One of the analyses above, run with the options it's given rather than the caller's.
+     */
+    private interface Analysis<T>
+    {
+        T run(AnalysisOptions options) throws IOException;
+    }
+
+    /**
+     * Runs analysis on executor under a child of the options' cancellation, which is cancelled once the returned
+     * future completes by any means, so a future cancelled by its caller stops the run at its next check instead of
+     * leaving it to finish unobserved.
+     */
+    private static <T> CompletableFuture<T> submit(final AnalysisOptions options, final Executor executor,
+                                                   final Analysis<T> analysis)
+    {
+        final Cancellation cancellation = options.getCancellation().child();
+        final AnalysisOptions runOptions = options.toBuilder().withCancellation(cancellation).build();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete(new BiConsumer<T, Throwable>()
+        {
+            @Override
+            public void accept(final T result, final Throwable failure)
+            {
+                cancellation.cancel();
+            }
+        });
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (future.isDone())
+                {
+                    return;
+                }
+                try
+                {
+                    future.complete(analysis.run(runOptions));
+                }
+                catch (final CancellationException e)
+                {
+                    if (cancellation.isExpired())
+                    {
+                        final TimeoutException timeout = new TimeoutException(e.getMessage());
+                        timeout.initCause(e);
+                        future.completeExceptionally(timeout);
+                    }
+                    else
+                    {
+                        future.completeExceptionally(e);
+                    }
+                }
+                catch (final IOException | RuntimeException | Error e)
+                {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Tests a range of genes' control reads against their experiment reads, filling in each gene's p-value. Genes
+     * without counted sites are given 0. Each leaf reuses one test's scratch buffers for all of its genes.
+     */
+    private static final class RankSumTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = -3126018435927413376L;
+        private final GeneGrouping.GroupedReads controlReads;
+        private final GeneGrouping.GroupedReads experimentReads;
+        private final double[] pValues;
+        private final Cancellation cancellation;
+        private final int from;
+        private final int to;
+        private final int genesPerTask;
+
+        private RankSumTask(final GeneGrouping.GroupedReads controlReads,
+                            final GeneGrouping.GroupedReads experimentReads, final double[] pValues,
+                            final Cancellation cancellation, final int from, final int to, final int genesPerTask)
+        {
+            this.controlReads = controlReads;
+            this.experimentReads = experimentReads;
+            this.pValues = pValues;
+            this.cancellation = cancellation;
+            this.from = from;
+            this.to = to;
+            this.genesPerTask = genesPerTask;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > genesPerTask)
+            {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new RankSumTask(controlReads, experimentReads, pValues, cancellation, from, mid,
+                                genesPerTask),
+                        new RankSumTask(controlReads, experimentReads, pValues, cancellation, mid, to, genesPerTask));
+                return;
+            }
+            final RankSumTest test = new RankSumTest();
+            for (int gene = from; gene < to; ++gene)
+            {
+                if ((gene - from) % GENES_PER_CHECK == 0)
+                {
+                    cancellation.check();
+                }
+                // Both lists should be of the same length, so just check one
+                if (controlReads.count(gene) == 0)
+                {
+                    pValues[gene] = 0.0;
+                }
+                else
+                {
+                    pValues[gene] = test.pValue(controlReads.getReads(), controlReads.from(gene), controlReads.to(gene),
+                            controlReads.zeros(gene), experimentReads.getReads(), experimentReads.from(gene),
+                            experimentReads.to(gene), experimentReads.zeros(gene));
+                }
+            }
+        }
     }
 }
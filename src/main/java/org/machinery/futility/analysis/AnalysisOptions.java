@@ -0,0 +1,333 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.metrics.AnalysisListener;
+import org.machinery.futility.analysis.stats.MultinomialDistribution;
+import org.machinery.futility.analysis.structs.OffHeapMemory;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Knobs for how {@link Algorithms} does its work. The defaults run everything on the calling thread and compute
+ * everything exactly, as the library always has.
+ */
+public final class AnalysisOptions
+{
+    private static final AnalysisOptions DEFAULTS = new Builder().build();
+
+    private final ForkJoinPool pool;
+    private final long ingestChunkSize;
+    private final double sketchAccuracy;
+    private final MultinomialDistribution.Method samplingMethod;
+    private final Long seed;
+    private final Normalization.Mode normalizationMode;
+    private final int replicates;
+    private final double convergenceTolerance;
+    private final NormalizedControlCache controlCache;
+    private final int maxConcurrentExperiments;
+    private final AnalysisListener listener;
+    private final OffHeapMemory offHeapMemory;
+    private final Cancellation cancellation;
+
+    private AnalysisOptions(final Builder builder)
+    {
+        this.cancellation = builder.cancellation;
+        this.offHeapMemory = builder.offHeapMemory;
+        this.seed = builder.seed;
+        this.normalizationMode = builder.normalizationMode;
+        this.replicates = builder.replicates;
+        this.convergenceTolerance = builder.convergenceTolerance;
+        this.controlCache = builder.controlCache;
+        this.maxConcurrentExperiments = builder.maxConcurrentExperiments;
+        this.listener = builder.listener;
+        this.samplingMethod = builder.samplingMethod;
+        this.pool = builder.pool;
+        this.ingestChunkSize = builder.ingestChunkSize;
+        this.sketchAccuracy = builder.sketchAccuracy;
+    }
+
+    public static AnalysisOptions defaults()
+    {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return pool to run parallel work on, or null to do everything on the calling thread
+     */
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * @return target size in bytes of the pieces a file is split into for parallel ingestion, or 0 to pick one based
+     * on the pool's parallelism
+     */
+    public long getIngestChunkSize()
+    {
+        return ingestChunkSize;
+    }
+
+    /**
+     * @return relative accuracy of the quantile sketch filled in while reads are ingested, or 0 to compute
+     * percentiles exactly with a second pass over the reads
+     */
+    public double getSketchAccuracy()
+    {
+        return sketchAccuracy;
+    }
+
+    /**
+     * @return how multinomial samples are drawn when normalizing
+     */
+    public MultinomialDistribution.Method getSamplingMethod()
+    {
+        return samplingMethod;
+    }
+
+    /**
+     * @return seed that normalization's random streams are split from, or null to seed from the system each run
+     */
+    public Long getSeed()
+    {
+        return seed;
+    }
+
+    public Normalization.Mode getNormalizationMode()
+    {
+        return normalizationMode;
+    }
+
+    /**
+     * @return most multinomial replicates averaged when normalizing by sampling
+     */
+    public int getReplicates()
+    {
+        return replicates;
+    }
+
+    /**
+     * @return largest change in any site's running mean, in reads, at which sampling stops early, or 0 to always draw
+     * every replicate
+     */
+    public double getConvergenceTolerance()
+    {
+        return convergenceTolerance;
+    }
+
+    /**
+     * @return cache of normalized controls to share between analyses, or null to normalize controls every time
+     */
+    public NormalizedControlCache getControlCache()
+    {
+        return controlCache;
+    }
+
+    /**
+     * @return most experiments a batch analysis works on at once when given a pool, or 0 for the pool's parallelism
+     */
+    public int getMaxConcurrentExperiments()
+    {
+        return maxConcurrentExperiments;
+    }
+
+    /**
+     * @return listener told how long each phase of an analysis takes and how much work it does
+     */
+    public AnalysisListener getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * @return memory that ingested tracks are kept in, or null to keep them on the heap
+     */
+    public OffHeapMemory getOffHeapMemory()
+    {
+        return offHeapMemory;
+    }
+
+    /**
+     * @return cancellation that analyses with these options poll, and stop when it's cancelled
+     */
+    public Cancellation getCancellation()
+    {
+        return cancellation;
+    }
+
+    public Builder toBuilder()
+    {
+        return new Builder()
+                .withCancellation(cancellation)
+                .withOffHeapMemory(offHeapMemory)
+                .withListener(listener)
+                .withMaxConcurrentExperiments(maxConcurrentExperiments)
+                .withControlCache(controlCache)
+                .withSeed(seed)
+                .withNormalizationMode(normalizationMode)
+                .withReplicates(replicates)
+                .withConvergenceTolerance(convergenceTolerance)
+                .withPool(pool)
+                .withIngestChunkSize(ingestChunkSize)
+                .withSketchAccuracy(sketchAccuracy)
+                .withSamplingMethod(samplingMethod);
+    }
+
+    public static final class Builder
+    {
+        private ForkJoinPool pool;
+        private long ingestChunkSize;
+        private double sketchAccuracy;
+        private MultinomialDistribution.Method samplingMethod = MultinomialDistribution.Method.CONDITIONAL_BINOMIAL;
+        private Long seed;
+        private Normalization.Mode normalizationMode = Normalization.Mode.SAMPLED;
+        private int replicates = Normalization.DEFAULT_REPLICATES;
+        private double convergenceTolerance;
+        private NormalizedControlCache controlCache;
+        private int maxConcurrentExperiments;
+        private AnalysisListener listener = AnalysisListener.NONE;
+        private OffHeapMemory offHeapMemory;
+        private Cancellation cancellation = Cancellation.NONE;
+
+        public Builder withPool(final ForkJoinPool pool)
+        {
+            this.pool = pool;
+            return this;
+        }
+
+        public Builder withIngestChunkSize(final long ingestChunkSize)
+        {
+            if (ingestChunkSize < 0)
+            {
+                throw new IllegalArgumentException("Chunk size must not be negative: " + ingestChunkSize);
+            }
+            this.ingestChunkSize = ingestChunkSize;
+            return this;
+        }
+
+        /**
+         * Estimating percentiles from a sketch saves a pass over the reads, at the cost of thresholds such as
+         * redThreshold only being accurate to within the given relative error.
+         */
+        public Builder withSketchAccuracy(final double sketchAccuracy)
+        {
+            if (sketchAccuracy < 0 || sketchAccuracy >= 1)
+            {
+                throw new IllegalArgumentException("Sketch accuracy must be within [0, 1): " + sketchAccuracy);
+            }
+            this.sketchAccuracy = sketchAccuracy;
+            return this;
+        }
+
+        public Builder withSamplingMethod(final MultinomialDistribution.Method samplingMethod)
+        {
+            if (null == samplingMethod)
+            {
+                throw new IllegalArgumentException("Sampling method must not be null");
+            }
+            this.samplingMethod = samplingMethod;
+            return this;
+        }
+
+        /**
+         * Seeding makes normalization reproducible: the same seed gives the same normalized reads, whatever pool
+         * they're computed on. Null seeds from the system.
+         */
+        public Builder withSeed(final Long seed)
+        {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder withNormalizationMode(final Normalization.Mode normalizationMode)
+        {
+            if (null == normalizationMode)
+            {
+                throw new IllegalArgumentException("Normalization mode must not be null");
+            }
+            this.normalizationMode = normalizationMode;
+            return this;
+        }
+
+        public Builder withReplicates(final int replicates)
+        {
+            if (replicates < 1)
+            {
+                throw new IllegalArgumentException("Must draw at least one replicate: " + replicates);
+            }
+            this.replicates = replicates;
+            return this;
+        }
+
+        /**
+         * Sampling stops early once a batch of replicates moves no site's running mean by more than this many reads.
+         */
+        public Builder withConvergenceTolerance(final double convergenceTolerance)
+        {
+            if (convergenceTolerance < 0)
+            {
+                throw new IllegalArgumentException("Tolerance must not be negative: " + convergenceTolerance);
+            }
+            this.convergenceTolerance = convergenceTolerance;
+            return this;
+        }
+
+        public Builder withControlCache(final NormalizedControlCache controlCache)
+        {
+            this.controlCache = controlCache;
+            return this;
+        }
+
+        /**
+         * Each experiment in flight holds its tracks in memory, so this bounds a batch's memory as well as its
+         * concurrency.
+         */
+        public Builder withMaxConcurrentExperiments(final int maxConcurrentExperiments)
+        {
+            if (maxConcurrentExperiments < 0)
+            {
+                throw new IllegalArgumentException("Concurrency must not be negative: " + maxConcurrentExperiments);
+            }
+            this.maxConcurrentExperiments = maxConcurrentExperiments;
+            return this;
+        }
+
+        public Builder withListener(final AnalysisListener listener)
+        {
+            if (null == listener)
+            {
+                throw new IllegalArgumentException("Listener must not be null; use AnalysisListener.NONE");
+            }
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Keeps the tracks of controls and experiments analyzed with these options off the heap, in memory, so many
+         * data sets can stay loaded without growing the heap. They can't be used once memory is closed.
+         */
+        public Builder withOffHeapMemory(final OffHeapMemory offHeapMemory)
+        {
+            this.offHeapMemory = offHeapMemory;
+            return this;
+        }
+
+        /**
+         * Analyses with these options give up with a {@link java.util.concurrent.CancellationException} soon after
+         * cancellation is cancelled or passes its deadline.
+         */
+        public Builder withCancellation(final Cancellation cancellation)
+        {
+            if (null == cancellation)
+            {
+                throw new IllegalArgumentException("Cancellation must not be null; use Cancellation.NONE");
+            }
+            this.cancellation = cancellation;
+            return this;
+        }
+
+        public AnalysisOptions build()
+        {
+            return new AnalysisOptions(this);
+        }
+    }
+}
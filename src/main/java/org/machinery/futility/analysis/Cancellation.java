@@ -0,0 +1,121 @@
+package org.machinery.futility.analysis;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Asks analyses to stop early. The long loops of an analysis, such as parsing lines, drawing replicates and testing
+ * genes, poll their options' cancellation every so often and give up with a {@link CancellationException} once
+ * it's cancelled or its deadline has passed. Nothing of an abandoned run is kept, so its buffers can be collected
+ * as soon as the exception unwinds.
+ *
+ * Cancellations form a tree: a child is cancelled along with its parent, and by its own deadline, but cancelling a
+ * child leaves its parent alone. Thread safe.
+ */
+public final class Cancellation implements BooleanSupplier
+{
+    /**
+     * Never cancelled, and can't be cancelled.
+     */
+    public static final Cancellation NONE = new Cancellation(null, false, 0);
+
+    private final Cancellation parent;
+    private final boolean hasDeadline;
+    // In System.nanoTime's terms.
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    /**
+     * A cancellation without a deadline, cancelled only by {@link #cancel()}.
+     */
+    public Cancellation()
+    {
+        this(null, false, 0);
+    }
+
+    private Cancellation(final Cancellation parent, final boolean hasDeadline, final long deadline)
+    {
+        this.parent = parent;
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return a cancellation whose deadline is timeout from now
+     */
+    public static Cancellation withTimeout(final long timeout, final TimeUnit unit)
+    {
+        return new Cancellation().child(timeout, unit);
+    }
+
+    /**
+     * @return a cancellation that's cancelled along with this one
+     */
+    public Cancellation child()
+    {
+        return new Cancellation(this, false, 0);
+    }
+
+    /**
+     * @return a cancellation that's cancelled along with this one, or once timeout from now has passed
+     */
+    public Cancellation child(final long timeout, final TimeUnit unit)
+    {
+        if (timeout < 0)
+        {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        return new Cancellation(this, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public void cancel()
+    {
+        if (this == NONE)
+        {
+            throw new UnsupportedOperationException("Cancellation.NONE can't be cancelled");
+        }
+        cancelled = true;
+    }
+
+    /**
+     * @return whether this or any ancestor has been cancelled or passed its deadline
+     */
+    public boolean isCancelled()
+    {
+        return cancelled || passedDeadline() || (null != parent && parent.isCancelled());
+    }
+
+    /**
+     * @return whether this or any ancestor has passed its deadline
+     */
+    public boolean isExpired()
+    {
+        return passedDeadline() || (null != parent && parent.isExpired());
+    }
+
+    private boolean passedDeadline()
+    {
+        return hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws CancellationException if this has been cancelled or passed its deadline
+     */
+    public void check()
+    {
+        if (isCancelled())
+        {
+            throw new CancellationException(isExpired() ? "Analysis passed its deadline" : "Analysis cancelled");
+        }
+    }
+
+    /**
+     * The same as {@link #isCancelled()}, so parsers can poll a cancellation without depending on this class.
+     */
+    @Override
+    public boolean getAsBoolean()
+    {
+        return isCancelled();
+    }
+}
@@ -0,0 +1,305 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.cache.WeightedLruCache;
+import org.machinery.futility.analysis.structs.Control;
+import org.machinery.futility.analysis.structs.Genome;
+import org.machinery.futility.analysis.structs.OffHeapMemory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Keeps analyzed genomes and controls by the SHA-256 of their files, so uploading the same file again returns the
+ * instance already analyzed instead of analyzing it and keeping another copy. Genomes and controls are immutable, so
+ * one instance is shared by everyone who uploads its file. A file uploaded under another name shares the analysis
+ * through a copy carrying the new name, which shares the original's indexes, measurements and normalized tracks.
+ *
+ * Every file is hashed before it's analyzed, so a duplicate isn't analyzed at all. Genome files are small and are
+ * read into memory to be hashed; controls given as a stream are spooled to a temporary file, hashed on the way, and
+ * analyzed from there.
+ *
+ * Controls analyzed into off-heap memory are cached with it. Once that memory is closed, their entries are dropped
+ * rather than returned.
+ */
+public final class DataSetCache
+{
+    // Rough costs of what an analysis keeps, for weighing entries: a genome's genes with their names and indexes,
+    // and a control's columns, interval index and zoom pyramid.
+    private static final long BYTES_PER_GENE = 256;
+    private static final long BYTES_PER_RECORD = 48;
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+    private final WeightedLruCache<Key, Object> dataSets;
+
+    /**
+     * @param maxBytes approximate memory the cached genomes and controls may take up, whether on or off the heap
+     */
+    public DataSetCache(final long maxBytes)
+    {
+        dataSets = new WeightedLruCache<>(maxBytes, new WeightedLruCache.Weigher<Object>()
+        {
+            @Override
+            public long weigh(final Object dataSet)
+            {
+                if (dataSet instanceof Genome)
+                {
+                    return BYTES_PER_GENE * ((Genome) dataSet).getGeneCount();
+                }
+                return BYTES_PER_RECORD * ((Control) dataSet).getSequenceMeasurements().getTrack().size();
+            }
+        });
+    }
+
+    /**
+     * As {@link Algorithms#analyzeGenome}, returning the cached genome if the same file has been analyzed before.
+     */
+    public Genome analyzeGenome(final String name, final InputStream inputStream) throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = new DigestInputStream(inputStream, digest))
+        {
+            copy(in, content, Cancellation.NONE);
+        }
+        final Key key = new Key(false, digest.digest(), 0, null);
+        Genome genome = (Genome) dataSets.get(key);
+        if (null == genome)
+        {
+            genome = cache(key, Algorithms.analyzeGenome(name, new ByteArrayInputStream(content.toByteArray())));
+        }
+        return sameName(name, genome.getName()) ? genome : genome.withName(name);
+    }
+
+    /**
+     * As {@link Algorithms#analyzeControl(String, String, InputStream, AnalysisOptions)}, returning the cached
+     * control if the same file has been analyzed with options giving the same result. The stream is spooled to a
+     * temporary file, which is deleted once the control is analyzed.
+     */
+    public Control analyzeControl(final String name, final String genomeName, final InputStream inputStream,
+                                  final AnalysisOptions options)
+            throws IOException
+    {
+        final Path spooled = Files.createTempFile("futility-control", ".igv");
+        try
+        {
+            final MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(inputStream, digest);
+                 OutputStream out = Files.newOutputStream(spooled))
+            {
+                copy(in, out, options.getCancellation());
+            }
+            try (FileChannel fileChannel = FileChannel.open(spooled, StandardOpenOption.READ))
+            {
+                return analyzeControl(name, genomeName, fileChannel, digest.digest(), options);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    /**
+     * As {@link Algorithms#analyzeControl(String, String, FileChannel, AnalysisOptions)}, returning the cached
+     * control if the same file has been analyzed with options giving the same result. The channel is left open.
+     */
+    public Control analyzeControl(final String name, final String genomeName, final FileChannel fileChannel,
+                                  final AnalysisOptions options)
+            throws IOException
+    {
+        return analyzeControl(name, genomeName, fileChannel, hash(fileChannel, options.getCancellation()), options);
+    }
+
+    private Control analyzeControl(final String name, final String genomeName, final FileChannel fileChannel,
+                                   final byte[] digest, final AnalysisOptions options)
+            throws IOException
+    {
+        // The sketch is kept with the control, and the memory holds its columns; nothing else shapes a control.
+        final Key key = new Key(true, digest, options.getSketchAccuracy(), options.getOffHeapMemory());
+        Control control = null;
+        if (null != key.memory && key.memory.isClosed())
+        {
+            // Its columns have been freed, and reading them could crash the JVM.
+            dataSets.remove(key);
+        }
+        else
+        {
+            control = (Control) dataSets.get(key);
+        }
+        if (null == control)
+        {
+            control = cache(key, Algorithms.analyzeControl(name, genomeName, fileChannel, options));
+        }
+        if (sameName(name, control.getName()) && sameName(genomeName, control.getGenomeName()))
+        {
+            return control;
+        }
+        // Sharing the measurements shares the normalized tracks cached for them too.
+        return new Control(name, genomeName, control.getSequenceMeasurements());
+    }
+
+    /**
+     * Caches dataSet unless another thread analyzing the same file got there first.
+     *
+     * @return the instance now shared for key
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cache(final Key key, final T dataSet)
+    {
+        final Object existing = dataSets.putIfAbsent(key, dataSet);
+        return null == existing ? dataSet : (T) existing;
+    }
+
+    private static boolean sameName(final String name, final String other)
+    {
+        return null == name ? null == other : name.equals(other);
+    }
+
+    private static void copy(final InputStream in, final OutputStream out, final Cancellation cancellation)
+            throws IOException
+    {
+        final byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            cancellation.check();
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private static byte[] hash(final FileChannel fileChannel, final Cancellation cancellation) throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        long position = 0;
+        int read;
+        // Positional reads leave the channel's position for the analysis that may follow.
+        while ((read = fileChannel.read(buffer, position)) != -1)
+        {
+            cancellation.check();
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public long getHits()
+    {
+        return dataSets.getHits();
+    }
+
+    @SuppressWarnings("unused")
+    public long getMisses()
+    {
+        return dataSets.getMisses();
+    }
+
+    @SuppressWarnings("unused")
+    public long getEvictions()
+    {
+        return dataSets.getEvictions();
+    }
+
+    @SuppressWarnings("unused")
+    public int size()
+    {
+        return dataSets.size();
+    }
+
+    /**
+     * @return approximate memory taken up by cached genomes and controls, in bytes
+     */
+    @SuppressWarnings("unused")
+    public long getBytes()
+    {
+        return dataSets.getWeight();
+    }
+
+    @SuppressWarnings("unused")
+    public long getMaxBytes()
+    {
+        return dataSets.getMaxWeight();
+    }
+
+    @SuppressWarnings("unused")
+    public void clear()
+    {
+        dataSets.clear();
+    }
+
+    private static final class Key
+    {
+        private final boolean control;
+        private final byte[] digest;
+        // Zero for genomes, which no option shapes.
+        private final double sketchAccuracy;
+        // Compared by identity: a control is only shared with analyses using the memory it lives in.
+        private final OffHeapMemory memory;
+
+        private Key(final boolean control, final byte[] digest, final double sketchAccuracy,
+                    final OffHeapMemory memory)
+        {
+            this.control = control;
+            this.digest = digest;
+            this.sketchAccuracy = sketchAccuracy;
+            this.memory = memory;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key other = (Key) o;
+            return control == other.control
+                    && Arrays.equals(digest, other.digest)
+                    && Double.compare(sketchAccuracy, other.sketchAccuracy) == 0
+                    && memory == other.memory;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = Boolean.hashCode(control);
+            result = 31 * result + Arrays.hashCode(digest);
+            result = 31 * result + (int) (Double.doubleToLongBits(sketchAccuracy) ^
+                    (Double.doubleToLongBits(sketchAccuracy) >>> 32));
+            result = 31 * result + System.identityHashCode(memory);
+            return result;
+        }
+    }
+}
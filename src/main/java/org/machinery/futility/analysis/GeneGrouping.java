@@ -0,0 +1,363 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.structs.Gene;
+import org.machinery.futility.analysis.structs.Genome;
+import org.machinery.futility.analysis.structs.IgvTrack;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Groups tracks' reads by gene, ignoring sites near either end of a gene. Reads are packed into one flat array per
+ * track, ordered by genome gene id and then by record, with an offsets table giving each gene's range, so nothing is
+ * boxed and per-gene statistics can read their range in place. Only sites with reads are packed; the rest are just
+ * counted, so grouped reads take memory in proportion to a track's hits. Grouping happens in two steps, laying out a
+ * track's sites and then filling in reads, so tracks with the same sites can share a layout.
+ *
+ * A site only counts toward a gene on its own contig. Genes whose contig isn't known, and sites without a contig,
+ * match any contig, as they did before genomes had contigs. So do genes on a contig the control's track never names,
+ * since a gene table and a track that share no contig names most likely disagree about what the names are rather
+ * than about where the genes are.
+ */
+final class GeneGrouping
+{
+    // Contig id for sites that weren't given a contig.
+    static final int ANY_CONTIG = -2;
+    // Contig id of genes that match any contig.
+    private static final int UNPLACED = -3;
+    // Fraction of a gene's length at either end whose sites aren't counted.
+    private static final double TRIM = 0.03;
+
+    private final Genome genome;
+    // Inclusive bounds on the sites counted for each genome gene id, with the trim already applied.
+    private final int[] lows;
+    private final int[] highs;
+    // Genome contig id of each gene, or UNPLACED for genes that match any contig.
+    private final int[] geneContigs;
+
+    /**
+     * @param track the control's track, whose contigs decide which genes' contigs are used
+     */
+    GeneGrouping(final Genome genome, final IgvTrack track)
+    {
+        this.genome = genome;
+        final int geneCount = genome.getGeneCount();
+        lows = new int[geneCount];
+        highs = new int[geneCount];
+        geneContigs = new int[geneCount];
+        final List<String> contigs = genome.getContigs();
+        final boolean[] placed = new boolean[contigs.size()];
+        for (int c = 0; c < placed.length; ++c)
+        {
+            placed[c] = null != contigs.get(c) && track.getContigId(contigs.get(c)) >= 0;
+        }
+        for (int i = 0; i < geneCount; ++i)
+        {
+            final int contig = genome.getGeneContigId(i);
+            geneContigs[i] = placed[contig] ? contig : UNPLACED;
+            final Gene gene = genome.getGene(i);
+            final int start = gene.getStart();
+            final int end = gene.getEnd();
+            final int geneLength = end - start;
+            // Sites are whole numbers, so these admit exactly the sites that
+            // start + 0.03 * length <= site <= end - 0.03 * length does.
+            lows[i] = (int) Math.ceil(start + (TRIM * geneLength));
+            highs[i] = (int) Math.floor(end - (TRIM * geneLength));
+        }
+    }
+
+    /**
+     * Works out which gene, if any, each of track's records counts toward. The layout applies to any track with the
+     * same sites, such as a normalized copy of track.
+     * @param pool pool to lay out contigs on in parallel, or null to work on the calling thread
+     */
+    Layout layout(final IgvTrack track, final ForkJoinPool pool)
+    {
+        // Resolve the track's gene dictionary once, rather than looking up a name for every record.
+        final int[] resolved = track.resolveGenes(genome);
+        final int[] siteGenes = new int[track.size()];
+        final LayoutTask contigs = new LayoutTask(this, track, resolved, siteGenes, 0, track.getContigCount());
+        if (null == pool || track.getContigCount() == 1)
+        {
+            contigs.compute();
+        }
+        else
+        {
+            pool.invoke(contigs);
+        }
+        final int[] offsets = new int[genome.getGeneCount() + 1];
+        for (final int gene : siteGenes)
+        {
+            if (gene >= 0)
+            {
+                ++offsets[gene + 1];
+            }
+        }
+        for (int i = 1; i < offsets.length; ++i)
+        {
+            offsets[i] += offsets[i - 1];
+        }
+        return new Layout(track, siteGenes, offsets);
+    }
+
+    /**
+     * @param contig name of a contig sites are on, or null
+     * @return the id {@link #counts} takes for contig
+     */
+    int resolveContig(final String contig)
+    {
+        return null == contig ? ANY_CONTIG : genome.getContigId(contig);
+    }
+
+    /**
+     * @param gene genome gene id
+     * @param contig id from {@link #resolveContig(String)} of the site's contig
+     * @return whether a site at position site counts toward gene
+     */
+    boolean counts(final int gene, final int contig, final int site)
+    {
+        final int geneContig = geneContigs[gene];
+        return (geneContig == contig || geneContig == UNPLACED || contig == ANY_CONTIG)
+                && lows[gene] <= site && site <= highs[gene];
+    }
+
+    /**
+     * Groups reads that have already been matched to genes, such as those collected while streaming a file.
+     * @param siteGenes genome gene id each read counts toward. Every one must be a gene.
+     * @param reads reads, in the order of their records. Sites without reads may be left out.
+     * @param size number of reads to group from the start of siteGenes and reads
+     * @param siteCounts number of sites counting toward each genome gene id, including any left out of reads
+     */
+    static GroupedReads group(final int[] siteGenes, final double[] reads, final int size, final int[] siteCounts)
+    {
+        final int[] siteOffsets = new int[siteCounts.length + 1];
+        for (int i = 0; i < siteCounts.length; ++i)
+        {
+            siteOffsets[i + 1] = siteOffsets[i] + siteCounts[i];
+        }
+        final int[] offsets = new int[siteOffsets.length];
+        for (int i = 0; i < size; ++i)
+        {
+            if (reads[i] != 0)
+            {
+                ++offsets[siteGenes[i] + 1];
+            }
+        }
+        final GroupedReads grouped = new GroupedReads(siteOffsets, prefixSum(offsets));
+        final int[] next = new int[siteCounts.length];
+        for (int i = 0; i < size; ++i)
+        {
+            if (reads[i] != 0)
+            {
+                final int gene = siteGenes[i];
+                grouped.put(gene, offsets[gene] + next[gene]++, reads[i]);
+            }
+        }
+        return grouped;
+    }
+
+    /**
+     * @param layout layout of a track with the same sites as track, as checked by {@link Layout#fits(IgvTrack)}
+     */
+    static GroupedReads group(final IgvTrack track, final Layout layout)
+    {
+        final int[] offsets = new int[layout.offsets.length];
+        for (int i = 0; i < layout.siteGenes.length; ++i)
+        {
+            final int gene = layout.siteGenes[i];
+            if (gene >= 0 && track.getReads(i) != 0)
+            {
+                ++offsets[gene + 1];
+            }
+        }
+        final GroupedReads grouped = new GroupedReads(layout.offsets, prefixSum(offsets));
+        final int[] next = new int[offsets.length - 1];
+        for (int i = 0; i < layout.siteGenes.length; ++i)
+        {
+            final int gene = layout.siteGenes[i];
+            if (gene >= 0 && track.getReads(i) != 0)
+            {
+                grouped.put(gene, offsets[gene] + next[gene]++, track.getReads(i));
+            }
+        }
+        return grouped;
+    }
+
+    private static int[] prefixSum(final int[] counts)
+    {
+        for (int i = 1; i < counts.length; ++i)
+        {
+            counts[i] += counts[i - 1];
+        }
+        return counts;
+    }
+
+    /**
+     * Finds the gene each record of a range of contigs counts toward. Contigs' records don't overlap, so contigs can
+     * be laid out at once.
+     */
+    private static final class LayoutTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 2236195000658318167L;
+        private final GeneGrouping grouping;
+        private final IgvTrack track;
+        private final int[] resolved;
+        private final int[] siteGenes;
+        private final int from;
+        private final int to;
+
+        private LayoutTask(final GeneGrouping grouping, final IgvTrack track, final int[] resolved,
+                           final int[] siteGenes, final int from, final int to)
+        {
+            this.grouping = grouping;
+            this.track = track;
+            this.resolved = resolved;
+            this.siteGenes = siteGenes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1)
+            {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new LayoutTask(grouping, track, resolved, siteGenes, from, mid),
+                        new LayoutTask(grouping, track, resolved, siteGenes, mid, to));
+                return;
+            }
+            for (int c = from; c < to; ++c)
+            {
+                final int contig = grouping.resolveContig(track.getContigName(c));
+                for (int i = track.getContigFrom(c); i < track.getContigTo(c); ++i)
+                {
+                    final int dictionaryId = track.getGeneId(i);
+                    final int gene = dictionaryId < 0 ? -1 : resolved[dictionaryId];
+                    siteGenes[i] = gene >= 0 && grouping.counts(gene, contig, track.getStart(i)) ? gene : -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Where each record of a track lands once grouped: the genome gene id it counts toward, or -1, and the offsets
+     * of each gene's range.
+     */
+    static final class Layout
+    {
+        private final IgvTrack track;
+        private final int[] siteGenes;
+        private final int[] offsets;
+
+        private Layout(final IgvTrack track, final int[] siteGenes, final int[] offsets)
+        {
+            this.track = track;
+            this.siteGenes = siteGenes;
+            this.offsets = offsets;
+        }
+
+        /**
+         * @return whether other can be grouped with this layout
+         */
+        boolean fits(final IgvTrack other)
+        {
+            return track.hasSameSites(other);
+        }
+    }
+
+    /**
+     * One track's reads grouped by genome gene id. Within a gene, reads keep the order of the track's records. Only
+     * the reads of sites with reads are stored; each gene's other sites have zero reads, and are only counted.
+     */
+    static final class GroupedReads
+    {
+        // Gene g's sites are [siteOffsets[g], siteOffsets[g + 1]), and its stored reads [offsets[g], offsets[g + 1]).
+        private final int[] siteOffsets;
+        private final int[] offsets;
+        private final double[] reads;
+        private final double[] sums;
+        private double total;
+
+        private GroupedReads(final int[] siteOffsets, final int[] offsets)
+        {
+            this.siteOffsets = siteOffsets;
+            this.offsets = offsets;
+            this.reads = new double[offsets[offsets.length - 1]];
+            this.sums = new double[offsets.length - 1];
+        }
+
+        /**
+         * @param newReads a read for every slot of {@link #getReads()}, such as a normalized copy of them
+         * @return the same genes' ranges holding newReads instead. Slots whose new read is zero are still stored.
+         */
+        GroupedReads withReads(final double[] newReads)
+        {
+            final GroupedReads grouped = new GroupedReads(siteOffsets, offsets);
+            for (int gene = 0; gene < sums.length; ++gene)
+            {
+                for (int slot = offsets[gene]; slot < offsets[gene + 1]; ++slot)
+                {
+                    grouped.put(gene, slot, newReads[slot]);
+                }
+            }
+            return grouped;
+        }
+
+        private void put(final int gene, final int slot, final double read)
+        {
+            reads[slot] = read;
+            sums[gene] += read;
+            total += read;
+        }
+
+        /**
+         * @return every stored read. Gene g's are those from {@link #from(int)} up to {@link #to(int)}, followed
+         * implicitly by {@link #zeros(int)} zeros. Not copied.
+         */
+        double[] getReads()
+        {
+            return reads;
+        }
+
+        int from(final int gene)
+        {
+            return offsets[gene];
+        }
+
+        int to(final int gene)
+        {
+            return offsets[gene + 1];
+        }
+
+        /**
+         * @return number of sites counting toward gene, with or without reads
+         */
+        int count(final int gene)
+        {
+            return siteOffsets[gene + 1] - siteOffsets[gene];
+        }
+
+        /**
+         * @return number of gene's sites without a stored read
+         */
+        int zeros(final int gene)
+        {
+            return count(gene) - (offsets[gene + 1] - offsets[gene]);
+        }
+
+        double sum(final int gene)
+        {
+            return sums[gene];
+        }
+
+        /**
+         * @return the sum of every grouped read
+         */
+        double getTotal()
+        {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.metrics.AnalysisListener;
+import org.machinery.futility.analysis.stats.MultinomialDistribution;
+import org.machinery.futility.analysis.structs.IgvTrack;
+import org.machinery.futility.analysis.structs.SequenceMeasurements;
+import org.machinery.futility.analysis.structs.SparseReads;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scales the reads of a deeper data set (the normalizee) down to the depth of a shallower one (the normalizer), by
+ * averaging multinomial resamplings of the normalizee at the normalizer's total read count, or by taking that
+ * average's expected value directly.
+ *
+ * Sites without reads can never be drawn, so the multinomial only has categories for the sites with reads, and
+ * sampling work and memory follow the normalizee's site hits rather than its number of sites. Replicates are folded
+ * into running totals as they're drawn, so memory use is a few arrays of that length per worker, no matter how many
+ * replicates there are. Given a seed, results are identical from run to run whatever the pool's parallelism.
+ */
+public final class Normalization
+{
+    /**
+     * Ways of normalizing.
+     */
+    public enum Mode
+    {
+        /**
+         * Averages multinomial replicates. This is the original algorithm.
+         */
+        SAMPLED,
+        /**
+         * Computes what the replicates average to in expectation, which skips sampling entirely. The result is
+         * deterministic and has no sampling noise, so it won't match any particular sampled run.
+         */
+        EXPECTED_VALUE
+    }
+
+    public static final int DEFAULT_REPLICATES = 100;
+    // With a convergence tolerance, replicates are drawn in batches of this many and the running mean compared
+    // between batches. It's fixed, rather than following the pool's parallelism, so seeded runs stop at the same
+    // replicate on any pool.
+    private static final int CONVERGENCE_BATCH = 10;
+
+    private Normalization()
+    {
+    }
+
+    public static IgvTrack normalize(final SequenceMeasurements normalizee, final SequenceMeasurements normalizer,
+                                     final AnalysisOptions options)
+    {
+        return normalize(normalizee, normalizer.getStats().get("siteHits"),
+                normalizer.getStats().get("totalSiteReads"), options);
+    }
+
+    /**
+     * @param normalizerCount site hits of the data set to normalize to
+     * @param normalizerTotalSiteReads total site reads of the data set to normalize to
+     */
+    public static IgvTrack normalize(final SequenceMeasurements normalizee, final int normalizerCount,
+                                     final int normalizerTotalSiteReads, final AnalysisOptions options)
+    {
+        final IgvTrack normalizeeTrack = normalizee.getTrack();
+        final SparseReads averaged = normalize(normalizeeTrack.sparseReads(),
+                normalizee.getStats().get("siteHits"), normalizee.getStats().get("totalSiteReads"),
+                normalizerCount, normalizerTotalSiteReads, options);
+        return normalizeeTrack.withReads(averaged);
+    }
+
+    /**
+     * @param reads the normalizee's reads, one per site. Overwritten with the normalized reads.
+     * @return reads, now holding the normalized reads
+     */
+    public static double[] normalize(final double[] reads, final int normalizeeCount,
+                                     final int normalizeeTotalSiteReads, final int normalizerCount,
+                                     final int normalizerTotalSiteReads, final AnalysisOptions options)
+    {
+        return normalize(SparseReads.of(reads), normalizeeCount, normalizeeTotalSiteReads, normalizerCount,
+                normalizerTotalSiteReads, options).toDense(reads);
+    }
+
+    /**
+     * Sites without reads stay at zero, so only the hits are normalized. Drawing over the hits alone gives exactly
+     * the reads drawing over every site would, since a category without probability takes no draws.
+     * @param reads the normalizee's reads
+     * @return the normalized reads, with the same hits as reads
+     */
+    public static SparseReads normalize(final SparseReads reads, final int normalizeeCount,
+                                        final int normalizeeTotalSiteReads, final int normalizerCount,
+                                        final int normalizerTotalSiteReads, final AnalysisOptions options)
+    {
+        final int hits = reads.getHitCount();
+        final double proportion = normalizerCount / (double) normalizeeCount;
+        // The multinomial gets one category per hit, plus an extra one (1 - proportion) for draws that don't land
+        // on a site.
+        final double[] probabilityVector = new double[hits + 1];
+        for (int i = 0; i < hits; ++i)
+        {
+            probabilityVector[i] = (proportion * reads.getReads(i)) / normalizeeTotalSiteReads;
+        }
+        probabilityVector[hits] = 1 - proportion;
+        final MultinomialDistribution multinomial = new MultinomialDistribution(probabilityVector);
+
+        if (options.getNormalizationMode() == Mode.EXPECTED_VALUE)
+        {
+            return reads.withHitReads(expectedValue(multinomial, normalizerTotalSiteReads, probabilityVector));
+        }
+        return reads.withHitReads(sampled(multinomial, normalizerTotalSiteReads, options));
+    }
+
+    /**
+     * @param scratch array with one slot per category, such as the multinomial's own probabilities
+     */
+    private static double[] expectedValue(final MultinomialDistribution multinomial, final int normalizerTotalSiteReads,
+                                          final double[] scratch)
+    {
+        final double[] expected = scratch;
+        multinomial.expectedCounts(normalizerTotalSiteReads, expected);
+        final int hits = expected.length - 1;
+        final double difference = normalizerTotalSiteReads - expected[hits];
+        final double correction = normalizerTotalSiteReads / difference;
+        final double[] averaged = new double[hits];
+        for (int j = 0; j < hits; ++j)
+        {
+            averaged[j] = expected[j] * correction;
+        }
+        return averaged;
+    }
+
+    private static double[] sampled(final MultinomialDistribution multinomial, final int normalizerTotalSiteReads,
+                                    final AnalysisOptions options)
+    {
+        final int replicates = options.getReplicates();
+        final double tolerance = options.getConvergenceTolerance();
+        final int batchSize = tolerance > 0 ? CONVERGENCE_BATCH : replicates;
+        final ForkJoinPool pool = options.getPool();
+        // Every replicate gets its own stream, split from the seed in replicate order, so the draws don't depend on
+        // which thread makes them.
+        final SplittableRandom seeded = null == options.getSeed()
+                ? new SplittableRandom()
+                : new SplittableRandom(options.getSeed());
+
+        long[] totals = null;
+        double correction = 0;
+        int drawn = 0;
+        while (drawn < replicates)
+        {
+            final int batchEnd = Math.min(replicates, drawn + batchSize);
+            final SplittableRandom[] streams = new SplittableRandom[batchEnd - drawn];
+            for (int i = 0; i < streams.length; ++i)
+            {
+                streams[i] = seeded.split();
+            }
+            final int replicatesPerTask = null == pool
+                    ? streams.length
+                    : Math.max(1, (streams.length + pool.getParallelism() - 1) / pool.getParallelism());
+            final ReplicateTask batch = new ReplicateTask(multinomial, normalizerTotalSiteReads,
+                    options.getSamplingMethod(), options.getCancellation(), streams, 0, streams.length,
+                    replicatesPerTask);
+            final long[] batchTotals = null == pool ? batch.compute() : pool.invoke(batch);
+
+            if (null == totals)
+            {
+                // The original algorithm transposes the sample and goes to the end of the first
+                // column. We haven't transposed, so we go to the end of the first row. Still feels arbitrary, but...
+                // Original algorithm also made a matrix of this identical value, which I shouldn't need to do.
+                final int difference = normalizerTotalSiteReads - batch.firstReplicateMisses;
+                correction = normalizerTotalSiteReads / (double) difference;
+                totals = batchTotals;
+                drawn = batchEnd;
+                continue;
+            }
+            double maxChange = 0;
+            for (int j = 0; j < totals.length; ++j)
+            {
+                final double before = totals[j] / (double) drawn;
+                totals[j] += batchTotals[j];
+                maxChange = Math.max(maxChange, Math.abs(totals[j] / (double) batchEnd - before));
+            }
+            drawn = batchEnd;
+            if (maxChange * correction <= tolerance)
+            {
+                break;
+            }
+        }
+
+        options.getListener().counted(AnalysisListener.Counter.DRAWS_SAMPLED,
+                drawn * (long) normalizerTotalSiteReads);
+
+        final double[] averaged = new double[totals.length];
+        for (int j = 0; j < averaged.length; ++j)
+        {
+            averaged[j] = (totals[j] * correction) / drawn;
+        }
+        return averaged;
+    }
+
+    /**
+     * Draws a range of replicates and sums their counts per site. Counts are summed as integers, which is exact, so
+     * the totals are the same however the range is split across threads. The cancellation is polled before each
+     * replicate.
+     */
+    private static final class ReplicateTask extends RecursiveTask<long[]>
+    {
+        private static final long serialVersionUID = 6013766213468380914L;
+        private final MultinomialDistribution multinomial;
+        private final int numExperiments;
+        private final MultinomialDistribution.Method method;
+        private final Cancellation cancellation;
+        private final SplittableRandom[] streams;
+        private final int from;
+        private final int to;
+        private final int replicatesPerTask;
+        // Written by whichever task draws its batch's first replicate, and read once the whole tree has been joined.
+        private int firstReplicateMisses;
+
+        private ReplicateTask(final MultinomialDistribution multinomial, final int numExperiments,
+                              final MultinomialDistribution.Method method, final Cancellation cancellation,
+                              final SplittableRandom[] streams, final int from, final int to,
+                              final int replicatesPerTask)
+        {
+            this.multinomial = multinomial;
+            this.numExperiments = numExperiments;
+            this.method = method;
+            this.cancellation = cancellation;
+            this.streams = streams;
+            this.from = from;
+            this.to = to;
+            this.replicatesPerTask = replicatesPerTask;
+        }
+
+        @Override
+        protected long[] compute()
+        {
+            if (to - from > replicatesPerTask)
+            {
+                final int mid = (from + to) >>> 1;
+                final ReplicateTask left = new ReplicateTask(multinomial, numExperiments, method, cancellation,
+                        streams, from, mid, replicatesPerTask);
+                final ReplicateTask right = new ReplicateTask(multinomial, numExperiments, method, cancellation,
+                        streams, mid, to, replicatesPerTask);
+                invokeAll(left, right);
+                final long[] totals = left.join();
+                final long[] rightTotals = right.join();
+                for (int j = 0; j < totals.length; ++j)
+                {
+                    totals[j] += rightTotals[j];
+                }
+                firstReplicateMisses = left.firstReplicateMisses;
+                return totals;
+            }
+            final int[] row = new int[multinomial.getNumCategories()];
+            // The last category is the extra one for draws that don't land on a site; it isn't totalled.
+            final long[] totals = new long[row.length - 1];
+            for (int replicate = from; replicate < to; ++replicate)
+            {
+                cancellation.check();
+                multinomial.sample(numExperiments, method, streams[replicate], row);
+                // Only the first batch's tasks are asked for this.
+                if (replicate == 0)
+                {
+                    firstReplicateMisses = row[row.length - 1];
+                }
+                for (int j = 0; j < totals.length; ++j)
+                {
+                    totals[j] += row[j];
+                }
+            }
+            return totals;
+        }
+    }
+}
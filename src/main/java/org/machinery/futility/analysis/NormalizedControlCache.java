@@ -0,0 +1,165 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.cache.WeightedLruCache;
+import org.machinery.futility.analysis.stats.MultinomialDistribution;
+import org.machinery.futility.analysis.structs.Control;
+import org.machinery.futility.analysis.structs.IgvTrack;
+import org.machinery.futility.analysis.structs.SequenceMeasurements;
+
+/**
+ * Keeps controls' normalized tracks, so a control analyzed against many experiments of the same depth is only
+ * normalized once. Tracks are keyed by the control's measurements, the depth it was normalized to, and every option
+ * that affects the result, so copies of a control under other names share its entries. Only reproducible
+ * normalizations are cached: expected value, or sampling with a seed. Share one cache between analyses through
+ * {@link AnalysisOptions.Builder#withControlCache}.
+ *
+ * Cached tracks hold on to their controls' measurements, so those stay reachable until their entries are evicted.
+ */
+public final class NormalizedControlCache
+{
+    private final WeightedLruCache<Key, IgvTrack> tracks;
+
+    /**
+     * @param maxBytes approximate memory the cached reads may take up. Only reads are counted, since normalized
+     * tracks share every other column with their control.
+     */
+    public NormalizedControlCache(final long maxBytes)
+    {
+        tracks = new WeightedLruCache<>(maxBytes, new WeightedLruCache.Weigher<IgvTrack>()
+        {
+            @Override
+            public long weigh(final IgvTrack track)
+            {
+                return 8L * track.size();
+            }
+        });
+    }
+
+    /**
+     * @return control normalized to the given depth, from the cache if it's there, otherwise normalized now and
+     * cached if the options make normalization reproducible
+     */
+    IgvTrack normalize(final Control control, final int targetSiteHits, final int targetTotalSiteReads,
+                       final AnalysisOptions options)
+    {
+        if (null == options.getSeed() && options.getNormalizationMode() == Normalization.Mode.SAMPLED)
+        {
+            return Normalization.normalize(control.getSequenceMeasurements(), targetSiteHits, targetTotalSiteReads,
+                    options);
+        }
+        final Key key = new Key(control, targetSiteHits, targetTotalSiteReads, options);
+        IgvTrack normalized = tracks.get(key);
+        if (null == normalized)
+        {
+            // Two threads missing at once both normalize; the results are identical, so either may be kept.
+            normalized = Normalization.normalize(control.getSequenceMeasurements(), targetSiteHits,
+                    targetTotalSiteReads, options);
+            tracks.put(key, normalized);
+        }
+        return normalized;
+    }
+
+    @SuppressWarnings("unused")
+    public long getHits()
+    {
+        return tracks.getHits();
+    }
+
+    @SuppressWarnings("unused")
+    public long getMisses()
+    {
+        return tracks.getMisses();
+    }
+
+    @SuppressWarnings("unused")
+    public long getEvictions()
+    {
+        return tracks.getEvictions();
+    }
+
+    @SuppressWarnings("unused")
+    public int size()
+    {
+        return tracks.size();
+    }
+
+    /**
+     * @return approximate memory taken up by cached reads, in bytes
+     */
+    @SuppressWarnings("unused")
+    public long getBytes()
+    {
+        return tracks.getWeight();
+    }
+
+    @SuppressWarnings("unused")
+    public void clear()
+    {
+        tracks.clear();
+    }
+
+    private static final class Key
+    {
+        // Compared by identity: measurements aren't value objects, and comparing their tracks would cost a pass.
+        private final SequenceMeasurements measurements;
+        private final int targetSiteHits;
+        private final int targetTotalSiteReads;
+        private final Long seed;
+        private final Normalization.Mode mode;
+        private final MultinomialDistribution.Method samplingMethod;
+        private final int replicates;
+        private final double convergenceTolerance;
+
+        private Key(final Control control, final int targetSiteHits, final int targetTotalSiteReads,
+                    final AnalysisOptions options)
+        {
+            this.measurements = control.getSequenceMeasurements();
+            this.targetSiteHits = targetSiteHits;
+            this.targetTotalSiteReads = targetTotalSiteReads;
+            this.mode = options.getNormalizationMode();
+            // The expected value doesn't depend on how sampling would have been done.
+            final boolean sampled = mode == Normalization.Mode.SAMPLED;
+            this.seed = sampled ? options.getSeed() : null;
+            this.samplingMethod = sampled ? options.getSamplingMethod() : null;
+            this.replicates = sampled ? options.getReplicates() : 0;
+            this.convergenceTolerance = sampled ? options.getConvergenceTolerance() : 0;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key other = (Key) o;
+            return measurements == other.measurements
+                    && targetSiteHits == other.targetSiteHits
+                    && targetTotalSiteReads == other.targetTotalSiteReads
+                    && (null == seed ? null == other.seed : seed.equals(other.seed))
+                    && mode == other.mode
+                    && samplingMethod == other.samplingMethod
+                    && replicates == other.replicates
+                    && Double.compare(convergenceTolerance, other.convergenceTolerance) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = System.identityHashCode(measurements);
+            result = 31 * result + targetSiteHits;
+            result = 31 * result + targetTotalSiteReads;
+            result = 31 * result + (null == seed ? 0 : seed.hashCode());
+            result = 31 * result + mode.hashCode();
+            result = 31 * result + (null == samplingMethod ? 0 : samplingMethod.hashCode());
+            result = 31 * result + replicates;
+            result = 31 * result + (int) (Double.doubleToLongBits(convergenceTolerance) ^
+                    (Double.doubleToLongBits(convergenceTolerance) >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.metrics.AnalysisListener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Times a phase of an analysis for an {@link AnalysisListener}, along with what the current thread allocated during
+ * it where the JVM can say. Start one when the phase begins and stop it when the phase ends, on the same thread.
+ */
+final class PhaseTimer
+{
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+    private final AnalysisListener listener;
+    private final long startNanos;
+    private final long startAllocated;
+
+    private PhaseTimer(final AnalysisListener listener)
+    {
+        this.listener = listener;
+        this.startAllocated = allocatedBytes();
+        this.startNanos = System.nanoTime();
+    }
+
+    static PhaseTimer start(final AnalysisListener listener)
+    {
+        return new PhaseTimer(listener);
+    }
+
+    void stop(final AnalysisListener.Phase phase)
+    {
+        final long elapsed = System.nanoTime() - startNanos;
+        final long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+        listener.phaseCompleted(phase, elapsed, allocated);
+    }
+
+    private static long allocatedBytes()
+    {
+        return null == ALLOCATIONS ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean()
+    {
+        // Allocation counting is a HotSpot extension; other JVMs just don't report allocations.
+        try
+        {
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean)
+            {
+                final com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) bean;
+                if (hotSpotBean.isThreadAllocatedMemorySupported() && hotSpotBean.isThreadAllocatedMemoryEnabled())
+                {
+                    return hotSpotBean;
+                }
+            }
+        }
+        catch (final LinkageError e)
+        {
+            // Fall through: the extension isn't there.
+        }
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.structs.Control;
+import org.machinery.futility.analysis.structs.Genome;
+import org.machinery.futility.analysis.structs.IgvTrack;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The work on a control and genome that doesn't depend on the experiment: trimmed gene bounds, which gene each of
+ * the control's sites counts toward, and the control's own reads grouped by gene. Prepared once, it can be shared by
+ * any number of experiments, on any number of threads.
+ */
+final class PreparedControl
+{
+    private final Control control;
+    private final GeneGrouping grouping;
+    private final GeneGrouping.Layout controlLayout;
+    private final ForkJoinPool pool;
+    private GeneGrouping.GroupedReads controlReads;
+
+    /**
+     * @param pool pool to lay out tracks' contigs on in parallel, or null
+     */
+    PreparedControl(final Genome genome, final Control control, final ForkJoinPool pool)
+    {
+        this.control = control;
+        this.grouping = new GeneGrouping(genome, control.getSequenceMeasurements().getTrack());
+        this.pool = pool;
+        this.controlLayout = grouping.layout(control.getSequenceMeasurements().getTrack(), pool);
+    }
+
+    Control getControl()
+    {
+        return control;
+    }
+
+    GeneGrouping getGrouping()
+    {
+        return grouping;
+    }
+
+    /**
+     * @param controlTrack the control's track, or a normalized copy of it
+     */
+    GeneGrouping.GroupedReads groupControl(final IgvTrack controlTrack)
+    {
+        if (controlTrack == control.getSequenceMeasurements().getTrack())
+        {
+            return getControlReads();
+        }
+        return GeneGrouping.group(controlTrack, controlLayout);
+    }
+
+    GeneGrouping.GroupedReads groupExperiment(final IgvTrack experimentTrack)
+    {
+        // Experiments usually cover the same sites as their control, in which case the control's layout does.
+        final GeneGrouping.Layout layout = controlLayout.fits(experimentTrack)
+                ? controlLayout
+                : grouping.layout(experimentTrack, pool);
+        return GeneGrouping.group(experimentTrack, layout);
+    }
+
+    private synchronized GeneGrouping.GroupedReads getControlReads()
+    {
+        if (null == controlReads)
+        {
+            controlReads = GeneGrouping.group(control.getSequenceMeasurements().getTrack(), controlLayout);
+        }
+        return controlReads;
+    }
+}
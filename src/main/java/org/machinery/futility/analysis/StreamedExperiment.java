@@ -0,0 +1,132 @@
+package org.machinery.futility.analysis;
+
+import org.machinery.futility.analysis.io.IgvRecordParser;
+import org.machinery.futility.analysis.structs.Genome;
+
+import java.util.Arrays;
+
+/**
+ * Parses an experiment's IGV data straight into what its gene features need: the reads of the sites with reads that
+ * count toward a gene, how many sites count toward each gene, and the hit and read counters. Nothing else about a
+ * record is kept, so there's no track, index, sketch or pyramid, reads outside genes only survive as their sum, and
+ * sites without reads only as their gene's site count.
+ */
+final class StreamedExperiment extends IgvRecordParser
+{
+    private final Genome genome;
+    private final GeneGrouping grouping;
+    // Genome gene id of each gene name the parser has seen, or -1 where the genome doesn't have the gene.
+    private int[] genomeIds = new int[16];
+    private int geneNameCount;
+    // Id GeneGrouping gives each contig the parser has seen.
+    private int[] contigs = new int[4];
+    private int contigCount;
+    private final int[] siteCounts;
+    private int[] siteGenes = new int[1024];
+    private double[] reads = new double[1024];
+    private int size;
+    private double outsideReads;
+    private int linesRead;
+    private int siteHits;
+    private int totalSiteReads;
+
+    StreamedExperiment(final Genome genome, final GeneGrouping grouping)
+    {
+        this.genome = genome;
+        this.grouping = grouping;
+        this.siteCounts = new int[genome.getGeneCount()];
+    }
+
+    @Override
+    protected int encodeGene(final String geneName)
+    {
+        if (geneNameCount == genomeIds.length)
+        {
+            genomeIds = Arrays.copyOf(genomeIds, geneNameCount * 2);
+        }
+        genomeIds[geneNameCount] = genome.getGeneId(geneName);
+        return geneNameCount++;
+    }
+
+    @Override
+    protected int encodeContig(final String contig)
+    {
+        if (contigCount == contigs.length)
+        {
+            contigs = Arrays.copyOf(contigs, contigCount * 2);
+        }
+        contigs[contigCount] = grouping.resolveContig(contig);
+        return contigCount++;
+    }
+
+    @Override
+    protected void parsedRecord(final int contigId, final int start, final int end, final double read,
+                                final int geneId)
+    {
+        // Counted as IgvTrack.Builder counts them, so the stats match an experiment ingested in full.
+        ++linesRead;
+        if (read > 0)
+        {
+            ++siteHits;
+            totalSiteReads += read;
+        }
+        final int gene = geneId < 0 ? -1 : genomeIds[geneId];
+        if (gene >= 0 && grouping.counts(gene, contigs[contigId], start))
+        {
+            ++siteCounts[gene];
+            if (read == 0)
+            {
+                return;
+            }
+            if (size == reads.length)
+            {
+                siteGenes = Arrays.copyOf(siteGenes, size * 2);
+                reads = Arrays.copyOf(reads, size * 2);
+            }
+            siteGenes[size] = gene;
+            reads[size] = read;
+            ++size;
+        }
+        else
+        {
+            outsideReads += read;
+        }
+    }
+
+    int getLinesRead()
+    {
+        return linesRead;
+    }
+
+    int getSiteHits()
+    {
+        return siteHits;
+    }
+
+    int getTotalSiteReads()
+    {
+        return totalSiteReads;
+    }
+
+    GeneGrouping.GroupedReads group()
+    {
+        return GeneGrouping.group(siteGenes, reads, size, siteCounts);
+    }
+
+    /**
+     * Normalizes grouped down to a shallower data set. Sites outside genes are sampled as a single site holding all
+     * of their reads: merging categories leaves the multinomial's other counts with the same distribution, so gene
+     * reads are normalized just as they would be with every site present. Expected value normalization gives the
+     * same reads up to rounding; seeded sampling gives different draws from the same distribution.
+     * @param grouped this experiment's reads, from {@link #group()}
+     */
+    GeneGrouping.GroupedReads normalize(final GeneGrouping.GroupedReads grouped, final int normalizerCount,
+                                        final int normalizerTotalSiteReads, final AnalysisOptions options)
+    {
+        final double[] geneReads = grouped.getReads();
+        final double[] sampled = Arrays.copyOf(geneReads, geneReads.length + 1);
+        sampled[geneReads.length] = outsideReads;
+        Normalization.normalize(sampled, siteHits, totalSiteReads, normalizerCount, normalizerTotalSiteReads, options);
+        return grouped.withReads(sampled);
+    }
+}
@@ -0,0 +1,149 @@
+package org.machinery.futility.analysis.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache bounded by the total weight of its values rather than their number, so a few large
+ * values can't crowd out memory the way a count limit would let them. Safe to share between threads.
+ */
+public final class WeightedLruCache<K, V>
+{
+    /**
+     * Measures a value's cost against the cache's limit, typically its approximate size in bytes.
+     */
+    public interface Weigher<V>
+    {
+        long weigh(V value);
+    }
+
+    private final long maxWeight;
+    private final Weigher<? super V> weigher;
+    // Access ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public WeightedLruCache(final long maxWeight, final Weigher<? super V> weigher)
+    {
+        if (maxWeight < 0)
+        {
+            throw new IllegalArgumentException("Maximum weight must not be negative: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return the value cached for key, or null if there is none. Counts as a hit or a miss.
+     */
+    public synchronized V get(final K key)
+    {
+        final V value = entries.get(key);
+        if (null == value)
+        {
+            ++misses;
+        }
+        else
+        {
+            ++hits;
+        }
+        return value;
+    }
+
+    /**
+     * Caches value under key, evicting the least recently used entries until the cache is back within its weight.
+     * A value heavier than the whole cache isn't kept.
+     */
+    public synchronized void put(final K key, final V value)
+    {
+        final long valueWeight = weigher.weigh(value);
+        final V replaced = entries.remove(key);
+        if (null != replaced)
+        {
+            weight -= weigher.weigh(replaced);
+        }
+        if (valueWeight > maxWeight)
+        {
+            return;
+        }
+        entries.put(key, value);
+        weight += valueWeight;
+        final Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight)
+        {
+            final Map.Entry<K, V> entry = eldest.next();
+            weight -= weigher.weigh(entry.getValue());
+            eldest.remove();
+            ++evictions;
+        }
+    }
+
+    /**
+     * Caches value under key unless a value is already cached there, as {@link #put} does. Neither counts as a hit
+     * nor a miss.
+     *
+     * @return the value already cached under key, or null if value was cached instead (or was too heavy to keep)
+     */
+    public synchronized V putIfAbsent(final K key, final V value)
+    {
+        final V existing = entries.get(key);
+        if (null != existing)
+        {
+            return existing;
+        }
+        put(key, value);
+        return null;
+    }
+
+    /**
+     * Drops the value cached under key, if any. Doesn't count as an eviction.
+     */
+    public synchronized void remove(final K key)
+    {
+        final V removed = entries.remove(key);
+        if (null != removed)
+        {
+            weight -= weigher.weigh(removed);
+        }
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getWeight()
+    {
+        return weight;
+    }
+
+    public long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+}
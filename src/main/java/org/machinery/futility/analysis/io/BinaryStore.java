@@ -0,0 +1,553 @@
+package org.machinery.futility.analysis.io;
+
+import org.machinery.futility.analysis.structs.Control;
+import org.machinery.futility.analysis.structs.Experiment;
+import org.machinery.futility.analysis.structs.Gene;
+import org.machinery.futility.analysis.structs.GeneFeatureMeasurements;
+import org.machinery.futility.analysis.structs.Genome;
+import org.machinery.futility.analysis.structs.IgvTrack;
+import org.machinery.futility.analysis.structs.OffHeapMemory;
+import org.machinery.futility.analysis.structs.SequenceMeasurements;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and loads genomes, controls and experiments in a compact, versioned binary format, as an alternative to
+ * Java serialization. Files are written through memory mapping, with columns moved in bulk, never an object per
+ * record. Loaded tracks read their columns straight from the file's mapping, so loading costs only the metadata,
+ * and pages of the file are read as the data is touched.
+ *
+ * Every file is little-endian and starts with a 24 byte header: the magic number, the format version, the kind of
+ * thing saved, 4 reserved bytes, and the length of the metadata that follows. The metadata holds names, stats,
+ * counts, the gene name dictionary and contigs, in that kind's order, with strings as a UTF-8 length and bytes (-1
+ * for null). After it, padded to a multiple of 8 bytes, come the columns: all of the double columns, then all of
+ * the int columns, each one value per record or per gene.
+ *
+ * Version 2 added contigs: each gene's contig, and each track's contig names and the offset of each contig's first
+ * record. Version 1 files are still read, as genomes and tracks without contigs.
+ *
+ * Loaded tracks trust the file's columns, as only this class writes them: the header and the columns' extent are
+ * checked, but not each record. Files must not be changed or truncated while data loaded from them is in use.
+ * Tracks can instead be read into {@link OffHeapMemory}, which copies their columns out of the file. Quantile
+ * sketches aren't saved, so percentiles of a loaded data set are computed exactly. Channels written to must
+ * be open for both reading and writing, as mapping requires, and are left open.
+ */
+public final class BinaryStore
+{
+    // "FUTL" when read as little-endian bytes.
+    private static final int MAGIC = 0x4C545546;
+    private static final int VERSION = 2;
+    private static final int FIRST_CONTIG_VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int KIND_GENOME = 1;
+    private static final int KIND_CONTROL = 2;
+    private static final int KIND_EXPERIMENT = 3;
+    private static final int FEATURE_DOUBLE_COLUMNS = 6;
+
+    private BinaryStore()
+    {
+    }
+
+    /**
+     * Saves genome to channel, replacing anything already in it. Genes are saved in the order they were loaded,
+     * including any replaced in the gene map by a later gene of the same name, so the loaded genome is the same.
+     */
+    public static void write(final Genome genome, final FileChannel channel) throws IOException
+    {
+        final int geneCount = genome.getGeneCount();
+        final Metadata metadata = new Metadata();
+        metadata.putString(genome.getName());
+        metadata.putInt(geneCount);
+        final int[] starts = new int[geneCount];
+        final int[] ends = new int[geneCount];
+        for (int i = 0; i < geneCount; ++i)
+        {
+            final Gene gene = genome.getGene(i);
+            metadata.putString(gene.getName());
+            metadata.putString(gene.getContig());
+            starts[i] = gene.getStart();
+            ends[i] = gene.getEnd();
+        }
+        final ByteBuffer columns = map(channel, KIND_GENOME, metadata, 8L * geneCount);
+        columns.asIntBuffer().put(starts).put(ends);
+    }
+
+    public static void write(final Control control, final FileChannel channel) throws IOException
+    {
+        final Metadata metadata = new Metadata();
+        metadata.putString(control.getName());
+        metadata.putString(control.getGenomeName());
+        putMeasurementsMetadata(metadata, control.getSequenceMeasurements());
+        final IgvTrack track = control.getSequenceMeasurements().getTrack();
+        putTrack(map(channel, KIND_CONTROL, metadata, trackColumnsSize(track)), track);
+    }
+
+    /**
+     * Saves experiment to channel, replacing anything already in it. Features are saved as a table with a column
+     * per measurement and a row per gene.
+     */
+    public static void write(final Experiment experiment, final FileChannel channel) throws IOException
+    {
+        final Metadata metadata = new Metadata();
+        metadata.putString(experiment.getName());
+        metadata.putString(experiment.getGenomeName());
+        metadata.putString(experiment.getControlName());
+        putMeasurementsMetadata(metadata, experiment.getSequenceMeasurements());
+        final Map<String, GeneFeatureMeasurements> features = experiment.getGeneFeatureMeasurements();
+        final int featureCount = features.size();
+        metadata.putInt(featureCount);
+        final GeneFeatureMeasurements[] rows = new GeneFeatureMeasurements[featureCount];
+        int row = 0;
+        for (final Map.Entry<String, GeneFeatureMeasurements> entry : features.entrySet())
+        {
+            metadata.putString(entry.getKey());
+            metadata.putString(entry.getValue().getCondition());
+            rows[row++] = entry.getValue();
+        }
+        final IgvTrack track = experiment.getSequenceMeasurements().getTrack();
+        final ByteBuffer columns = map(channel, KIND_EXPERIMENT, metadata,
+                trackColumnsSize(track) + (FEATURE_DOUBLE_COLUMNS * 8L + 2 * 4) * featureCount);
+        putTrack(columns, track);
+        final double[] values = new double[featureCount];
+        for (int column = 0; column < FEATURE_DOUBLE_COLUMNS; ++column)
+        {
+            for (int i = 0; i < featureCount; ++i)
+            {
+                values[i] = featureColumn(rows[i], column);
+            }
+            putDoubles(columns, values);
+        }
+        final int[] numTASites = new int[featureCount];
+        final int[] geneLengths = new int[featureCount];
+        for (int i = 0; i < featureCount; ++i)
+        {
+            numTASites[i] = rows[i].getNumTASites();
+            geneLengths[i] = rows[i].getGeneLength();
+        }
+        putInts(columns, numTASites);
+        putInts(columns, geneLengths);
+    }
+
+    private static double featureColumn(final GeneFeatureMeasurements features, final int column)
+    {
+        switch (column)
+        {
+            case 0:
+                return features.getNumControlReads();
+            case 1:
+                return features.getNumExperimentReads();
+            case 2:
+                return features.getModifiedRatio();
+            case 3:
+                return features.getP();
+            case 4:
+                return features.getEssentialityIndex();
+            case 5:
+                return features.getFitness();
+            default:
+                throw new IllegalArgumentException("No feature column " + column);
+        }
+    }
+
+    public static Genome readGenome(final FileChannel channel) throws IOException
+    {
+        final ByteBuffer buffer = open(channel, KIND_GENOME);
+        final boolean hasContigs = version(buffer) >= FIRST_CONTIG_VERSION;
+        final String name = getString(buffer);
+        final int geneCount = buffer.getInt();
+        final String[] names = new String[geneCount];
+        final String[] contigs = new String[geneCount];
+        for (int i = 0; i < geneCount; ++i)
+        {
+            names[i] = getString(buffer);
+            contigs[i] = hasContigs ? getString(buffer) : null;
+        }
+        alignColumns(buffer);
+        final IntBuffer starts = column(buffer, 4, geneCount).asIntBuffer();
+        final IntBuffer ends = column(buffer, 4, geneCount).asIntBuffer();
+        final List<Gene> genes = new ArrayList<>(geneCount);
+        final Map<String, Gene> geneMap = new HashMap<>();
+        for (int i = 0; i < geneCount; ++i)
+        {
+            final Gene gene = new Gene(names[i], starts.get(i), ends.get(i), contigs[i]);
+            genes.add(gene);
+            geneMap.put(gene.getName(), gene);
+        }
+        return new Genome(name, geneMap, genes);
+    }
+
+    public static Control readControl(final FileChannel channel) throws IOException
+    {
+        return readControl(channel, null);
+    }
+
+    /**
+     * @param memory memory to read the control's track into, or null to read it from the file's mapping
+     */
+    public static Control readControl(final FileChannel channel, final OffHeapMemory memory) throws IOException
+    {
+        final ByteBuffer buffer = open(channel, KIND_CONTROL);
+        final String name = getString(buffer);
+        final String genomeName = getString(buffer);
+        final MeasurementsMetadata measurements = getMeasurementsMetadata(buffer);
+        alignColumns(buffer);
+        return new Control(name, genomeName, measurements.read(buffer, memory));
+    }
+
+    public static Experiment readExperiment(final FileChannel channel) throws IOException
+    {
+        return readExperiment(channel, null);
+    }
+
+    /**
+     * @param memory memory to read the experiment's track into, or null to read it from the file's mapping
+     */
+    public static Experiment readExperiment(final FileChannel channel, final OffHeapMemory memory)
+            throws IOException
+    {
+        final ByteBuffer buffer = open(channel, KIND_EXPERIMENT);
+        final String name = getString(buffer);
+        final String genomeName = getString(buffer);
+        final String controlName = getString(buffer);
+        final MeasurementsMetadata measurements = getMeasurementsMetadata(buffer);
+        final int featureCount = buffer.getInt();
+        final String[] geneNames = new String[featureCount];
+        final String[] conditions = new String[featureCount];
+        for (int i = 0; i < featureCount; ++i)
+        {
+            geneNames[i] = getString(buffer);
+            conditions[i] = getString(buffer);
+        }
+        alignColumns(buffer);
+        final SequenceMeasurements sequenceMeasurements = measurements.read(buffer, memory);
+        final DoubleBuffer[] values = new DoubleBuffer[FEATURE_DOUBLE_COLUMNS];
+        for (int column = 0; column < values.length; ++column)
+        {
+            values[column] = column(buffer, 8, featureCount).asDoubleBuffer();
+        }
+        final IntBuffer numTASites = column(buffer, 4, featureCount).asIntBuffer();
+        final IntBuffer geneLengths = column(buffer, 4, featureCount).asIntBuffer();
+        final Map<String, GeneFeatureMeasurements> features = new HashMap<>();
+        for (int i = 0; i < featureCount; ++i)
+        {
+            features.put(geneNames[i], new GeneFeatureMeasurements(conditions[i], numTASites.get(i),
+                    geneLengths.get(i), values[0].get(i), values[1].get(i), values[2].get(i), values[3].get(i),
+                    values[4].get(i), values[5].get(i)));
+        }
+        return new Experiment(name, genomeName, controlName, sequenceMeasurements, features);
+    }
+
+    private static void putMeasurementsMetadata(final Metadata metadata, final SequenceMeasurements measurements)
+    {
+        final Map<String, Integer> stats = measurements.getStats();
+        metadata.putInt(stats.size());
+        for (final Map.Entry<String, Integer> stat : stats.entrySet())
+        {
+            metadata.putString(stat.getKey());
+            metadata.putInt(stat.getValue());
+        }
+        final IgvTrack track = measurements.getTrack();
+        metadata.putInt(track.size());
+        metadata.putInt(track.getGeneCount());
+        for (int i = 0; i < track.getGeneCount(); ++i)
+        {
+            metadata.putString(track.getDictionaryName(i));
+        }
+        metadata.putInt(track.getContigCount());
+        for (int c = 0; c < track.getContigCount(); ++c)
+        {
+            metadata.putString(track.getContigName(c));
+            metadata.putInt(track.getContigFrom(c));
+        }
+    }
+
+    private static MeasurementsMetadata getMeasurementsMetadata(final ByteBuffer buffer)
+    {
+        final int statCount = buffer.getInt();
+        final Map<String, Integer> stats = new HashMap<>();
+        for (int i = 0; i < statCount; ++i)
+        {
+            final String key = getString(buffer);
+            stats.put(key, buffer.getInt());
+        }
+        final int size = buffer.getInt();
+        final String[] geneNames = new String[buffer.getInt()];
+        for (int i = 0; i < geneNames.length; ++i)
+        {
+            geneNames[i] = getString(buffer);
+        }
+        if (version(buffer) < FIRST_CONTIG_VERSION)
+        {
+            return new MeasurementsMetadata(stats, size, geneNames, new String[]{null}, new int[]{0, size});
+        }
+        final String[] contigNames = new String[buffer.getInt()];
+        final int[] contigBounds = new int[contigNames.length + 1];
+        for (int c = 0; c < contigNames.length; ++c)
+        {
+            contigNames[c] = getString(buffer);
+            contigBounds[c] = buffer.getInt();
+        }
+        contigBounds[contigNames.length] = size;
+        return new MeasurementsMetadata(stats, size, geneNames, contigNames, contigBounds);
+    }
+
+    private static long trackColumnsSize(final IgvTrack track)
+    {
+        return (8L + 4 + 4 + 4) * track.size();
+    }
+
+    private static void putTrack(final ByteBuffer columns, final IgvTrack track)
+    {
+        final int size = track.size();
+        track.putReads(columns.asDoubleBuffer());
+        columns.position(columns.position() + 8 * size);
+        track.putStarts(columns.asIntBuffer());
+        columns.position(columns.position() + 4 * size);
+        track.putEnds(columns.asIntBuffer());
+        columns.position(columns.position() + 4 * size);
+        track.putGeneIds(columns.asIntBuffer());
+        columns.position(columns.position() + 4 * size);
+    }
+
+    /**
+     * Writes the header and metadata, and maps room for the columns after them.
+     * @return buffer positioned at the start of the columns
+     */
+    private static ByteBuffer map(final FileChannel channel, final int kind, final Metadata metadata,
+                                  final long columnsSize)
+            throws IOException
+    {
+        final long metadataEnd = HEADER_SIZE + metadata.size();
+        final long columnsStart = (metadataEnd + 7) & ~7L;
+        final long fileSize = columnsStart + columnsSize;
+        if (fileSize > Integer.MAX_VALUE)
+        {
+            throw new IOException("Too large to map: " + fileSize + " bytes");
+        }
+        channel.truncate(0);
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(0).putLong(metadata.size());
+        mapped.put(metadata.bytes, 0, metadata.size);
+        mapped.position((int) columnsStart);
+        return mapped;
+    }
+
+    /**
+     * Maps channel and checks its header.
+     * @return buffer positioned at the start of the metadata
+     */
+    private static ByteBuffer open(final FileChannel channel, final int kind) throws IOException
+    {
+        final long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE)
+        {
+            throw new IOException("Too large to map: " + fileSize + " bytes");
+        }
+        if (fileSize < HEADER_SIZE)
+        {
+            throw new IOException("Not a saved analysis: only " + fileSize + " bytes");
+        }
+        final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC)
+        {
+            throw new IOException("Not a saved analysis");
+        }
+        final int version = buffer.getInt();
+        if (version < 1 || version > VERSION)
+        {
+            throw new IOException("Unsupported format version " + version + ", expected at most " + VERSION);
+        }
+        final int actualKind = buffer.getInt();
+        if (actualKind != kind)
+        {
+            throw new IOException("Expected " + kindName(kind) + " but found " + kindName(actualKind));
+        }
+        // Reserved, then the metadata's length, which the reader doesn't need while the layout is fixed.
+        buffer.getInt();
+        buffer.getLong();
+        return buffer;
+    }
+
+    /**
+     * @return format version of the file buffer maps
+     */
+    private static int version(final ByteBuffer buffer)
+    {
+        return buffer.getInt(4);
+    }
+
+    private static String kindName(final int kind)
+    {
+        switch (kind)
+        {
+            case KIND_GENOME:
+                return "a genome";
+            case KIND_CONTROL:
+                return "a control";
+            case KIND_EXPERIMENT:
+                return "an experiment";
+            default:
+                return "unknown kind " + kind;
+        }
+    }
+
+    private static void alignColumns(final ByteBuffer buffer)
+    {
+        buffer.position((buffer.position() + 7) & ~7);
+    }
+
+    private static String getString(final ByteBuffer buffer)
+    {
+        final int length = buffer.getInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the next column of count values width bytes wide, as a view of buffer, after which buffer is positioned
+     * @throws IOException if the file ends before the column does
+     */
+    private static ByteBuffer column(final ByteBuffer buffer, final int width, final int count) throws IOException
+    {
+        final long length = (long) width * count;
+        if (count < 0 || length > buffer.remaining())
+        {
+            throw new IOException("Truncated: a column of " + count + " values runs past the end of the file");
+        }
+        final ByteBuffer column = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        column.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return column;
+    }
+
+    private static void putInts(final ByteBuffer buffer, final int[] values)
+    {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static void putDoubles(final ByteBuffer buffer, final double[] values)
+    {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + 8 * values.length);
+    }
+
+    /**
+     * What's read from a data set's metadata, enough to read its columns.
+     */
+    private static final class MeasurementsMetadata
+    {
+        private final Map<String, Integer> stats;
+        private final int size;
+        private final String[] geneNames;
+        private final String[] contigNames;
+        private final int[] contigBounds;
+
+        private MeasurementsMetadata(final Map<String, Integer> stats, final int size, final String[] geneNames,
+                                     final String[] contigNames, final int[] contigBounds)
+        {
+            this.stats = stats;
+            this.size = size;
+            this.geneNames = geneNames;
+            this.contigNames = contigNames;
+            this.contigBounds = contigBounds;
+        }
+
+        private SequenceMeasurements read(final ByteBuffer buffer, final OffHeapMemory memory) throws IOException
+        {
+            DoubleBuffer reads = column(buffer, 8, size).asDoubleBuffer();
+            IntBuffer starts = column(buffer, 4, size).asIntBuffer();
+            IntBuffer ends = column(buffer, 4, size).asIntBuffer();
+            IntBuffer geneIds = column(buffer, 4, size).asIntBuffer();
+            if (null != memory)
+            {
+                reads = copy(reads, memory.allocateDoubles(size));
+                starts = copy(starts, memory.allocateInts(size));
+                ends = copy(ends, memory.allocateInts(size));
+                geneIds = copy(geneIds, memory.allocateInts(size));
+            }
+            try
+            {
+                return new SequenceMeasurements(IgvTrack.fromTrustedColumns(starts, ends, reads, geneIds, geneNames,
+                        contigNames, contigBounds, memory), stats);
+            }
+            catch (final IllegalArgumentException e)
+            {
+                throw new IOException("Corrupt saved track: " + e.getMessage(), e);
+            }
+        }
+
+        private static DoubleBuffer copy(final DoubleBuffer column, final DoubleBuffer dst)
+        {
+            dst.duplicate().put(column.duplicate());
+            return dst;
+        }
+
+        private static IntBuffer copy(final IntBuffer column, final IntBuffer dst)
+        {
+            dst.duplicate().put(column.duplicate());
+            return dst;
+        }
+    }
+
+    /**
+     * Little-endian bytes of the metadata section, grown as it's written.
+     */
+    private static final class Metadata
+    {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        private ByteBuffer room(final int length)
+        {
+            if (size + length > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(size + length, bytes.length * 2));
+            }
+            final ByteBuffer room = ByteBuffer.wrap(bytes, size, length).order(ByteOrder.LITTLE_ENDIAN);
+            size += length;
+            return room;
+        }
+
+        private void putInt(final int value)
+        {
+            room(4).putInt(value);
+        }
+
+        private void putString(final String value)
+        {
+            if (null == value)
+            {
+                putInt(-1);
+                return;
+            }
+            final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            putInt(encoded.length);
+            room(encoded.length).put(encoded);
+        }
+
+        private int size()
+        {
+            return size;
+        }
+    }
+}
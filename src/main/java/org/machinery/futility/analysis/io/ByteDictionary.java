@@ -0,0 +1,111 @@
+package org.machinery.futility.analysis.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open addressing table from byte sequences to ids. A lookup hashes and compares the bytes where they sit in the
+ * buffer, so the only allocation is a copy of each distinct key the first time it's seen.
+ */
+final class ByteDictionary
+{
+    private static final int EMPTY = -1;
+    private byte[][] keys = new byte[16][];
+    private int[] values = new int[16];
+    private int size;
+
+    ByteDictionary()
+    {
+        Arrays.fill(values, EMPTY);
+    }
+
+    private static int hash(final ByteBuffer buffer, final int from, final int to)
+    {
+        // FNV-1a
+        int hash = 0x811C9DC5;
+        for (int i = from; i < to; ++i)
+        {
+            hash ^= buffer.get(i);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private static boolean matches(final byte[] key, final ByteBuffer buffer, final int from, final int to)
+    {
+        if (key.length != to - from)
+        {
+            return false;
+        }
+        for (int i = 0; i < key.length; ++i)
+        {
+            if (key[i] != buffer.get(from + i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the id stored for the bytes in [from, to), or -1 if there is none
+     */
+    int get(final ByteBuffer buffer, final int from, final int to)
+    {
+        final int mask = keys.length - 1;
+        for (int slot = hash(buffer, from, to) & mask; values[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if (matches(keys[slot], buffer, from, to))
+            {
+                return values[slot];
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Stores id for the bytes in [from, to), which must not already be present.
+     */
+    void put(final ByteBuffer buffer, final int from, final int to, final int id)
+    {
+        if ((size + 1) * 2 > keys.length)
+        {
+            grow();
+        }
+        final byte[] key = new byte[to - from];
+        for (int i = from; i < to; ++i)
+        {
+            key[i - from] = buffer.get(i);
+        }
+        insert(key, ByteBuffer.wrap(key), id);
+        ++size;
+    }
+
+    private void insert(final byte[] key, final ByteBuffer wrapped, final int id)
+    {
+        final int mask = keys.length - 1;
+        int slot = hash(wrapped, 0, key.length) & mask;
+        while (values[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = id;
+    }
+
+    private void grow()
+    {
+        final byte[][] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new byte[oldKeys.length * 2][];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, EMPTY);
+        for (int i = 0; i < oldKeys.length; ++i)
+        {
+            if (oldValues[i] != EMPTY)
+            {
+                insert(oldKeys[i], ByteBuffer.wrap(oldKeys[i]), oldValues[i]);
+            }
+        }
+    }
+}
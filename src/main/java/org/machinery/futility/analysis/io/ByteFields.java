@@ -0,0 +1,171 @@
+package org.machinery.futility.analysis.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizing and number parsing over ASCII bytes in a buffer. Fields are separated by runs of whitespace, as with
+ * String.split("\\s+"), and numbers are parsed in place rather than through a substring.
+ */
+final class ByteFields
+{
+    private static final int MAX_EXACT_FRACTION_DIGITS = 22;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_FRACTION_DIGITS + 1];
+
+    static
+    {
+        double power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; ++i)
+        {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private ByteFields()
+    {
+    }
+
+    private static boolean isWhitespace(final byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\f' || b == 0x0B || b == '\r' || b == '\n';
+    }
+
+    /**
+     * @return index of the first non-whitespace byte at or after from, or end if there is none
+     */
+    static int skipWhitespace(final ByteBuffer buffer, final int from, final int end)
+    {
+        int i = from;
+        while (i < end && isWhitespace(buffer.get(i)))
+        {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * @return index just past the field starting at from
+     */
+    static int fieldEnd(final ByteBuffer buffer, final int from, final int end)
+    {
+        int i = from;
+        while (i < end && !isWhitespace(buffer.get(i)))
+        {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Same contract as Integer.parseInt over the bytes in [from, to).
+     */
+    static int parseInt(final ByteBuffer buffer, final int from, final int to)
+    {
+        if (from >= to)
+        {
+            throw new NumberFormatException("Expected an integer, found an empty field");
+        }
+        int i = from;
+        final boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+')
+        {
+            ++i;
+        }
+        if (i == to)
+        {
+            throw invalid("integer", buffer, from, to);
+        }
+        // Accumulate negatively so Integer.MIN_VALUE parses without overflowing.
+        final int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < to; ++i)
+        {
+            final int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10)
+            {
+                throw invalid("integer", buffer, from, to);
+            }
+            result *= 10;
+            if (result < limit + digit)
+            {
+                throw invalid("integer", buffer, from, to);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Same contract as Double.parseDouble over the bytes in [from, to). Plain decimals short enough to be converted
+     * exactly, which covers read counts, are parsed in place; anything else falls back to Double.parseDouble.
+     */
+    static double parseDouble(final ByteBuffer buffer, final int from, final int to)
+    {
+        int i = from;
+        final boolean negative = i < to && buffer.get(i) == '-';
+        if (negative || (i < to && buffer.get(i) == '+'))
+        {
+            ++i;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        for (; i < to; ++i)
+        {
+            final byte b = buffer.get(i);
+            if (b >= '0' && b <= '9')
+            {
+                if (mantissa >= MAX_EXACT_MANTISSA / 10)
+                {
+                    return parseSlow(buffer, from, to);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                ++digits;
+                if (inFraction)
+                {
+                    ++fractionDigits;
+                }
+            }
+            else if (b == '.' && !inFraction)
+            {
+                inFraction = true;
+            }
+            else
+            {
+                // Exponents, NaN, Infinity and malformed input are all left to the JDK.
+                return parseSlow(buffer, from, to);
+            }
+        }
+        if (digits == 0 || fractionDigits > MAX_EXACT_FRACTION_DIGITS)
+        {
+            return parseSlow(buffer, from, to);
+        }
+        // Both operands are exact, so a single division is correctly rounded.
+        final double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static double parseSlow(final ByteBuffer buffer, final int from, final int to)
+    {
+        return Double.parseDouble(decode(buffer, from, to));
+    }
+
+    static String decode(final ByteBuffer buffer, final int from, final int to)
+    {
+        final byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; ++i)
+        {
+            bytes[i - from] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static NumberFormatException invalid(final String type, final ByteBuffer buffer, final int from,
+                                                 final int to)
+    {
+        return new NumberFormatException("Expected an " + type + ", found \"" + decode(buffer, from, to) + "\"");
+    }
+}
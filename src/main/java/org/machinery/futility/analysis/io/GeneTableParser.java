@@ -0,0 +1,44 @@
+package org.machinery.futility.analysis.io;
+
+import org.machinery.futility.analysis.structs.Gene;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses gene table lines, which hold a name, start and end, and optionally a contig, separated by whitespace, as
+ * with {@link Gene#parseRecord(String)}.
+ */
+public final class GeneTableParser extends LineParser
+{
+    private final List<Gene> genes = new ArrayList<>();
+
+    /**
+     * @return genes parsed so far, in file order
+     */
+    public List<Gene> getGenes()
+    {
+        return genes;
+    }
+
+    @Override
+    protected void parseLine(final ByteBuffer buffer, final int start, final int end)
+    {
+        final int nameFrom = ByteFields.skipWhitespace(buffer, start, end);
+        if (nameFrom == end)
+        {
+            return;
+        }
+        final int nameTo = ByteFields.fieldEnd(buffer, nameFrom, end);
+        final int startFrom = ByteFields.skipWhitespace(buffer, nameTo, end);
+        final int startTo = ByteFields.fieldEnd(buffer, startFrom, end);
+        final int endFrom = ByteFields.skipWhitespace(buffer, startTo, end);
+        final int endTo = ByteFields.fieldEnd(buffer, endFrom, end);
+        final int contigFrom = ByteFields.skipWhitespace(buffer, endTo, end);
+        final int contigTo = ByteFields.fieldEnd(buffer, contigFrom, end);
+        genes.add(new Gene(ByteFields.decode(buffer, nameFrom, nameTo), ByteFields.parseInt(buffer, startFrom, startTo),
+                ByteFields.parseInt(buffer, endFrom, endTo),
+                Gene.parseContig(contigFrom < contigTo ? ByteFields.decode(buffer, contigFrom, contigTo) : null)));
+    }
+}
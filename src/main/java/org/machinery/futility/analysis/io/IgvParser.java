@@ -0,0 +1,117 @@
+package org.machinery.futility.analysis.io;
+
+import org.machinery.futility.analysis.structs.IgvTrack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parses IGV lines straight into the columns of an {@link IgvTrack.Builder}.
+ */
+public final class IgvParser extends IgvRecordParser
+{
+    private final IgvTrack.Builder track;
+
+    public IgvParser(final IgvTrack.Builder track)
+    {
+        this.track = track;
+    }
+
+    public IgvTrack.Builder getTrack()
+    {
+        return track;
+    }
+
+    /**
+     * Splits the file at line boundaries into pieces of roughly chunkSize bytes, parses the pieces in parallel on
+     * pool, and appends them to track in file order. The result, counters included, is the same as parsing the whole
+     * file with a single parser. The channel is left open.
+     * @return track
+     */
+    public static IgvTrack.Builder parseParallel(final FileChannel channel, final IgvTrack.Builder track,
+                                                 final ForkJoinPool pool, final long chunkSize)
+            throws IOException
+    {
+        return parseParallel(channel, track, pool, chunkSize, null);
+    }
+
+    /**
+     * @param cancelled condition every piece's parser polls, as {@link #setCancellation} describes, or null
+     */
+    public static IgvTrack.Builder parseParallel(final FileChannel channel, final IgvTrack.Builder track,
+                                                 final ForkJoinPool pool, final long chunkSize,
+                                                 final BooleanSupplier cancelled)
+            throws IOException
+    {
+        final long[] splits = lineAlignedSplits(channel, Math.max(1, chunkSize));
+        final List<Callable<IgvTrack.Builder>> chunks = new ArrayList<>(splits.length - 1);
+        for (int i = 1; i < splits.length; ++i)
+        {
+            final long from = splits[i - 1];
+            final long to = splits[i];
+            chunks.add(new Callable<IgvTrack.Builder>()
+            {
+                @Override
+                public IgvTrack.Builder call() throws IOException
+                {
+                    final IgvParser parser = new IgvParser(track.emptyCopy());
+                    parser.setCancellation(cancelled);
+                    parser.parse(channel, from, to);
+                    return parser.getTrack();
+                }
+            });
+        }
+        try
+        {
+            for (final Future<IgvTrack.Builder> chunk : pool.invokeAll(chunks))
+            {
+                track.append(chunk.get());
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing " + channel);
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return track;
+    }
+
+    @Override
+    protected int encodeGene(final String geneName)
+    {
+        return track.encodeGene(geneName);
+    }
+
+    @Override
+    protected int encodeContig(final String contig)
+    {
+        return track.encodeContig(contig);
+    }
+
+    @Override
+    protected void parsedRecord(final int contigId, final int start, final int end, final double reads,
+                                final int geneId)
+    {
+        track.addEncoded(contigId, start, end, reads, geneId);
+    }
+}
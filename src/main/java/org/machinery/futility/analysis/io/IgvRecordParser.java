@@ -0,0 +1,74 @@
+package org.machinery.futility.analysis.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits IGV lines into fields and hands each record on without building any objects for it. Accepts the same input
+ * as {@link org.machinery.futility.analysis.structs.IgvRecord#parseRecord(String)}: a contig, such as a chromosome
+ * or plasmid, then start, end, reads and an optional gene name, separated by whitespace. Subclasses decide where
+ * records go.
+ */
+public abstract class IgvRecordParser extends LineParser
+{
+    // Map gene name and contig bytes to the subclass's ids, so names are only decoded the first time they're seen.
+    private final ByteDictionary geneIds = new ByteDictionary();
+    private final ByteDictionary contigIds = new ByteDictionary();
+
+    /**
+     * Called the first time each gene name is seen.
+     * @return a non-negative id for geneName, which is what later records naming the gene are given
+     */
+    protected abstract int encodeGene(String geneName);
+
+    /**
+     * Called the first time each contig name is seen.
+     * @return a non-negative id for contig, which is what later records on the contig are given
+     */
+    protected abstract int encodeContig(String contig);
+
+    /**
+     * @param contigId id {@link #encodeContig(String)} gave the record's contig
+     * @param geneId id {@link #encodeGene(String)} gave the record's gene name, or -1 if it had none
+     */
+    protected abstract void parsedRecord(int contigId, int start, int end, double reads, int geneId);
+
+    @Override
+    protected final void parseLine(final ByteBuffer buffer, final int start, final int end)
+    {
+        final int contigFrom = ByteFields.skipWhitespace(buffer, start, end);
+        if (contigFrom == end)
+        {
+            return;
+        }
+        final int contigTo = ByteFields.fieldEnd(buffer, contigFrom, end);
+        final int startFrom = ByteFields.skipWhitespace(buffer, contigTo, end);
+        final int startTo = ByteFields.fieldEnd(buffer, startFrom, end);
+        final int endFrom = ByteFields.skipWhitespace(buffer, startTo, end);
+        final int endTo = ByteFields.fieldEnd(buffer, endFrom, end);
+        final int readsFrom = ByteFields.skipWhitespace(buffer, endTo, end);
+        final int readsTo = ByteFields.fieldEnd(buffer, readsFrom, end);
+        final int geneFrom = ByteFields.skipWhitespace(buffer, readsTo, end);
+        final int geneTo = ByteFields.fieldEnd(buffer, geneFrom, end);
+
+        final int recordStart = ByteFields.parseInt(buffer, startFrom, startTo);
+        final int recordEnd = ByteFields.parseInt(buffer, endFrom, endTo);
+        final double reads = ByteFields.parseDouble(buffer, readsFrom, readsTo);
+        int geneId = -1;
+        if (geneFrom < geneTo)
+        {
+            geneId = geneIds.get(buffer, geneFrom, geneTo);
+            if (geneId < 0)
+            {
+                geneId = encodeGene(ByteFields.decode(buffer, geneFrom, geneTo));
+                geneIds.put(buffer, geneFrom, geneTo, geneId);
+            }
+        }
+        int contigId = contigIds.get(buffer, contigFrom, contigTo);
+        if (contigId < 0)
+        {
+            contigId = encodeContig(ByteFields.decode(buffer, contigFrom, contigTo));
+            contigIds.put(buffer, contigFrom, contigTo, contigId);
+        }
+        parsedRecord(contigId, recordStart, recordEnd, reads, geneId);
+    }
+}
@@ -0,0 +1,216 @@
+package org.machinery.futility.analysis.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Walks newline delimited text held in bytes, handing each line's bounds to {@link #parseLine} without decoding it
+ * into a String. Lines may end in \n, \r\n or \r, as with {@link java.io.BufferedReader#readLine()}, and blank
+ * lines are skipped.
+ */
+public abstract class LineParser
+{
+    private static final int CHANNEL_BUFFER_SIZE = 1 << 20;
+    // Mapped regions are capped well below the 2GB a single MappedByteBuffer can address.
+    static final long MAX_MAPPED_REGION = 1L << 30;
+    // Lines parsed between polls of the cancellation.
+    private static final int LINES_PER_CHECK = 1 << 14;
+    private long bytesRead;
+    private BooleanSupplier cancelled;
+    private int linesUntilCheck = LINES_PER_CHECK;
+
+    /**
+     * @param buffer buffer holding the line. Read with absolute gets only; its position and limit are untouched.
+     * @param start index of the line's first byte
+     * @param end index just past the line's last byte, excluding the line terminator
+     */
+    protected abstract void parseLine(ByteBuffer buffer, int start, int end);
+
+    /**
+     * Parses every line in buffer, between its position and limit. A final line without a terminator is parsed too.
+     */
+    public void parse(final ByteBuffer buffer)
+    {
+        bytesRead += buffer.remaining();
+        parseRemaining(buffer);
+    }
+
+    /**
+     * Has parsing give up with a {@link CancellationException} once cancelled returns true. It's polled every few
+     * thousand lines.
+     * @param cancelled condition to poll, or null to always parse to the end
+     */
+    public void setCancellation(final BooleanSupplier cancelled)
+    {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return number of bytes this parser has been given, including line terminators and blank lines
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    private void parseRemaining(final ByteBuffer buffer)
+    {
+        final int consumed = parseLines(buffer, buffer.position(), buffer.limit());
+        if (consumed < buffer.limit())
+        {
+            parseLine(buffer, consumed, buffer.limit());
+        }
+    }
+
+    /**
+     * Parses each complete line in [from, to).
+     * @return the index just past the last complete line
+     */
+    private int parseLines(final ByteBuffer buffer, final int from, final int to)
+    {
+        int lineStart = from;
+        for (int i = from; i < to; ++i)
+        {
+            final byte b = buffer.get(i);
+            if (b == '\n' || b == '\r')
+            {
+                if (i > lineStart)
+                {
+                    parseLine(buffer, lineStart, i);
+                    if (--linesUntilCheck == 0)
+                    {
+                        checkCancellation();
+                    }
+                }
+                lineStart = i + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    private void checkCancellation()
+    {
+        linesUntilCheck = LINES_PER_CHECK;
+        if (null != cancelled && cancelled.getAsBoolean())
+        {
+            throw new CancellationException("Parsing cancelled after " + bytesRead + " bytes");
+        }
+    }
+
+    /**
+     * Reads the channel to its end through a reusable buffer. The channel is not closed.
+     */
+    public void parse(final ReadableByteChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+        int read;
+        while ((read = channel.read(buffer)) >= 0)
+        {
+            bytesRead += read;
+            if (!buffer.hasRemaining())
+            {
+                final int consumed = parseLines(buffer, 0, buffer.position());
+                if (consumed == 0)
+                {
+                    // A single line fills the buffer, so make room for the rest of it.
+                    final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                else
+                {
+                    buffer.limit(buffer.position());
+                    buffer.position(consumed);
+                    buffer.compact();
+                }
+            }
+        }
+        buffer.flip();
+        parseRemaining(buffer);
+    }
+
+    /**
+     * Parses the whole file through memory mapped regions, splitting the file into regions at line boundaries.
+     * The channel's position is untouched, and it is not closed.
+     */
+    public void parse(final FileChannel channel) throws IOException
+    {
+        parse(channel, 0, channel.size());
+    }
+
+    /**
+     * Splits the file into pieces of roughly chunkSize bytes, moving each split forward to just past the next line
+     * terminator so that every piece holds whole lines.
+     * @return offsets of the piece boundaries, starting with 0 and ending with the file's size
+     */
+    static long[] lineAlignedSplits(final FileChannel channel, final long chunkSize) throws IOException
+    {
+        final long size = channel.size();
+        final ByteBuffer scratch = ByteBuffer.allocate(8192);
+        long[] splits = new long[] {0};
+        long previous = 0;
+        while (previous < size)
+        {
+            long split = Math.min(size, previous + chunkSize);
+            scan:
+            while (split < size)
+            {
+                scratch.clear();
+                final int read = channel.read(scratch, split);
+                if (read <= 0)
+                {
+                    split = size;
+                    break;
+                }
+                for (int i = 0; i < read; ++i)
+                {
+                    final byte b = scratch.get(i);
+                    if (b == '\n' || b == '\r')
+                    {
+                        split += i + 1;
+                        break scan;
+                    }
+                }
+                split += read;
+            }
+            split = Math.min(split, size);
+            splits = Arrays.copyOf(splits, splits.length + 1);
+            splits[splits.length - 1] = split;
+            previous = split;
+        }
+        return splits;
+    }
+
+    /**
+     * Parses the lines in [from, to) of the file. from and to should fall on line boundaries.
+     */
+    void parse(final FileChannel channel, final long from, final long to) throws IOException
+    {
+        bytesRead += to - from;
+        long regionStart = from;
+        while (regionStart < to)
+        {
+            final long regionLength = Math.min(MAX_MAPPED_REGION, to - regionStart);
+            final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionLength);
+            if (regionStart + regionLength == to)
+            {
+                parseRemaining(region);
+                return;
+            }
+            final int consumed = parseLines(region, 0, region.limit());
+            if (consumed == 0)
+            {
+                throw new IOException("Line at offset " + regionStart + " is longer than " + MAX_MAPPED_REGION
+                        + " bytes");
+            }
+            regionStart += consumed;
+        }
+    }
+}
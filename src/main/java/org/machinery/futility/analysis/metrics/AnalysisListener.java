@@ -0,0 +1,81 @@
+package org.machinery.futility.analysis.metrics;
+
+/**
+ * Hears how long each phase of an analysis took and how much work it did, for finding out which step of a slow
+ * analysis was slow. Analyses on a pool, and batches of experiments, call listeners from several threads at once, so
+ * implementations must be thread safe. Callbacks happen on the analysis's critical path and should be cheap.
+ */
+public interface AnalysisListener
+{
+    /**
+     * Ignores everything. The default.
+     */
+    AnalysisListener NONE = new AnalysisListener()
+    {
+        @Override
+        public void phaseCompleted(final Phase phase, final long elapsedNanos, final long allocatedBytes)
+        {
+        }
+
+        @Override
+        public void counted(final Counter counter, final long amount)
+        {
+        }
+    };
+
+    enum Phase
+    {
+        /**
+         * Parsing an IGV file into a track.
+         */
+        INGEST,
+        /**
+         * Computing a data set's stats, including percentile thresholds, and its zoom pyramid.
+         */
+        MEASURE,
+        /**
+         * Normalizing the deeper of control and experiment down to the shallower one.
+         */
+        NORMALIZE,
+        /**
+         * Grouping reads by gene.
+         */
+        GROUP,
+        /**
+         * Testing each gene's control reads against its experiment reads.
+         */
+        RANK_SUM,
+        /**
+         * Working out each gene's read counts, ratios and fitness.
+         */
+        FEATURES,
+        /**
+         * Benjamini-Hochberg correction of the p-values.
+         */
+        BH_CORRECTION,
+        /**
+         * Ranking genes by fitness and building the final measurements.
+         */
+        FITNESS_INDEX
+    }
+
+    enum Counter
+    {
+        RECORDS_PARSED,
+        BYTES_READ,
+        /**
+         * Trials drawn from multinomials while normalizing, summed over replicates.
+         */
+        DRAWS_SAMPLED,
+        GENES_TESTED
+    }
+
+    /**
+     * @param elapsedNanos wall clock time the phase took
+     * @param allocatedBytes bytes allocated by the thread that ran the phase, or -1 where the JVM can't measure it.
+     * Work the phase handed to a pool isn't included.
+     */
+    void phaseCompleted(Phase phase, long elapsedNanos, long allocatedBytes);
+
+    void counted(Counter counter, long amount);
+}
@@ -0,0 +1,206 @@
+package org.machinery.futility.analysis.metrics;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps a histogram of each phase's durations, and running totals of allocations and counters, in memory. Durations
+ * are counted in power-of-two buckets of nanoseconds, so percentiles are accurate to within a factor of two, which is
+ * plenty to tell which phase is slow. {@link #toMap()} flattens everything for export.
+ */
+public final class HistogramListener implements AnalysisListener
+{
+    // Bucket b counts durations in [2^(b-1), 2^b) nanoseconds; bucket 0 counts zero.
+    private static final int BUCKETS = 64;
+
+    // Filled in once by the constructor, and only read after that.
+    private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    public HistogramListener()
+    {
+        for (final Phase phase : Phase.values())
+        {
+            phases.put(phase, new Histogram());
+        }
+    }
+
+    @Override
+    public void phaseCompleted(final Phase phase, final long elapsedNanos, final long allocatedBytes)
+    {
+        phases.get(phase).record(elapsedNanos, allocatedBytes);
+    }
+
+    @Override
+    public void counted(final Counter counter, final long amount)
+    {
+        counters.addAndGet(counter.ordinal(), amount);
+    }
+
+    public long getCount(final Counter counter)
+    {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * @return number of times phase has completed
+     */
+    public long getCount(final Phase phase)
+    {
+        return phases.get(phase).count();
+    }
+
+    public long getTotalNanos(final Phase phase)
+    {
+        return phases.get(phase).totalNanos();
+    }
+
+    public long getMaxNanos(final Phase phase)
+    {
+        return phases.get(phase).maxNanos();
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile of phase's durations, or 0 if it hasn't
+     * completed
+     */
+    public long getNanosAtPercentile(final Phase phase, final double percentile)
+    {
+        return phases.get(phase).atPercentile(percentile);
+    }
+
+    /**
+     * @return bytes allocated by phase, summed over the times it completed where allocation could be measured
+     */
+    public long getAllocatedBytes(final Phase phase)
+    {
+        return phases.get(phase).allocatedBytes();
+    }
+
+    /**
+     * @return every metric by name, such as "normalize.p99Nanos" or "counter.bytesRead"
+     */
+    public Map<String, Long> toMap()
+    {
+        final Map<String, Long> metrics = new LinkedHashMap<>();
+        for (final Phase phase : Phase.values())
+        {
+            final String prefix = camelCase(phase.name()) + ".";
+            metrics.put(prefix + "count", getCount(phase));
+            metrics.put(prefix + "totalNanos", getTotalNanos(phase));
+            metrics.put(prefix + "maxNanos", getMaxNanos(phase));
+            metrics.put(prefix + "p50Nanos", getNanosAtPercentile(phase, 0.5));
+            metrics.put(prefix + "p99Nanos", getNanosAtPercentile(phase, 0.99));
+            metrics.put(prefix + "allocatedBytes", getAllocatedBytes(phase));
+        }
+        for (final Counter counter : Counter.values())
+        {
+            metrics.put("counter." + camelCase(counter.name()), getCount(counter));
+        }
+        return metrics;
+    }
+
+    private static String camelCase(final String constant)
+    {
+        final StringBuilder name = new StringBuilder(constant.length());
+        boolean upper = false;
+        for (final char c : constant.toLowerCase().toCharArray())
+        {
+            if (c == '_')
+            {
+                upper = true;
+            }
+            else
+            {
+                name.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return name.toString();
+    }
+
+    public void clear()
+    {
+        for (final Histogram histogram : phases.values())
+        {
+            histogram.clear();
+        }
+        for (int i = 0; i < counters.length(); ++i)
+        {
+            counters.set(i, 0);
+        }
+    }
+
+    private static final class Histogram
+    {
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long allocatedBytes;
+
+        private synchronized void record(final long nanos, final long allocated)
+        {
+            final long clamped = Math.max(0, nanos);
+            ++buckets[BUCKETS - Long.numberOfLeadingZeros(clamped)];
+            ++count;
+            totalNanos += clamped;
+            maxNanos = Math.max(maxNanos, clamped);
+            if (allocated > 0)
+            {
+                allocatedBytes += allocated;
+            }
+        }
+
+        private synchronized void clear()
+        {
+            Arrays.fill(buckets, 0);
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            allocatedBytes = 0;
+        }
+
+        private synchronized long count()
+        {
+            return count;
+        }
+
+        private synchronized long totalNanos()
+        {
+            return totalNanos;
+        }
+
+        private synchronized long maxNanos()
+        {
+            return maxNanos;
+        }
+
+        private synchronized long allocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        private synchronized long atPercentile(final double percentile)
+        {
+            if (count == 0)
+            {
+                return 0;
+            }
+            final long rank = Math.min(count - 1, (long) (percentile * count));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; ++b)
+            {
+                seen += buckets[b];
+                if (seen > rank)
+                {
+                    return b == 0 ? 0 : Math.min(maxNanos, (1L << b) - 1);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.machinery.futility.analysis.stats;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws from a binomial distribution in time that doesn't grow with the number of trials. Small means use inversion,
+ * walking the probability mass function from zero, and everything else uses Kachitvichyanukul and Schmeiser's BTPE
+ * rejection algorithm ("Binomial random variate generation", CACM 31, 1988), as laid out in numpy.
+ */
+public final class BinomialSampler
+{
+    // Below this mean, inversion only takes a handful of steps and beats BTPE's setup.
+    private static final double INVERSION_MAX_MEAN = 30;
+
+    private BinomialSampler()
+    {
+    }
+
+    /**
+     * @param n number of trials
+     * @param p probability of success of each trial, in [0, 1]
+     * @param random source of uniform values
+     * @return number of successes
+     */
+    public static int sample(final int n, final double p, final SplittableRandom random)
+    {
+        if (n == 0 || p <= 0)
+        {
+            return 0;
+        }
+        if (p >= 1)
+        {
+            return n;
+        }
+        if (p > 0.5)
+        {
+            return n - sample(n, 1 - p, random);
+        }
+        if (n * p <= INVERSION_MAX_MEAN)
+        {
+            return inversion(n, p, random);
+        }
+        return btpe(n, p, random);
+    }
+
+    private static int inversion(final int n, final double p, final SplittableRandom random)
+    {
+        final double q = 1 - p;
+        final double qn = Math.exp(n * Math.log(q));
+        final double np = n * p;
+        // Mass beyond this bound is negligible, and restarting guards against walking off the end through rounding.
+        final double bound = Math.min(n, np + 10 * Math.sqrt(np * q + 1));
+        int x = 0;
+        double px = qn;
+        double u = random.nextDouble();
+        while (u > px)
+        {
+            ++x;
+            if (x > bound)
+            {
+                x = 0;
+                px = qn;
+                u = random.nextDouble();
+            }
+            else
+            {
+                u -= px;
+                px = ((n - x + 1) * p * px) / (x * q);
+            }
+        }
+        return x;
+    }
+
+    private static int btpe(final int n, final double p, final SplittableRandom random)
+    {
+        final double q = 1 - p;
+        final double nrq = n * p * q;
+        final double fm = n * p + p;
+        final int m = (int) Math.floor(fm);
+        final double p1 = Math.floor(2.195 * Math.sqrt(nrq) - 4.6 * q) + 0.5;
+        final double xm = m + 0.5;
+        final double xl = xm - p1;
+        final double xr = xm + p1;
+        final double c = 0.134 + 20.5 / (15.3 + m);
+        double a = (fm - xl) / (fm - xl * p);
+        final double laml = a * (1.0 + a / 2.0);
+        a = (xr - fm) / (xr * q);
+        final double lamr = a * (1.0 + a / 2.0);
+        final double p2 = p1 * (1.0 + 2.0 * c);
+        final double p3 = p2 + c / laml;
+        final double p4 = p3 + c / lamr;
+
+        while (true)
+        {
+            final double u = random.nextDouble() * p4;
+            double v = random.nextDouble();
+            final int y;
+            if (u <= p1)
+            {
+                // Triangular region in the middle: accept immediately.
+                return (int) Math.floor(xm - p1 * v + u);
+            }
+            if (u <= p2)
+            {
+                // Parallelograms either side of the triangle.
+                final double x = xl + (u - p1) / c;
+                v = v * c + 1.0 - Math.abs(m - x + 0.5) / p1;
+                if (v > 1.0)
+                {
+                    continue;
+                }
+                y = (int) Math.floor(x);
+            }
+            else if (u <= p3)
+            {
+                // Left exponential tail.
+                final double x = Math.floor(xl + Math.log(v) / laml);
+                if (x < 0 || v == 0.0)
+                {
+                    continue;
+                }
+                y = (int) x;
+                v = v * (u - p2) * laml;
+            }
+            else
+            {
+                // Right exponential tail.
+                final double x = Math.floor(xr - Math.log(v) / lamr);
+                if (x > n || v == 0.0)
+                {
+                    continue;
+                }
+                y = (int) x;
+                v = v * (u - p3) * lamr;
+            }
+
+            final int k = Math.abs(y - m);
+            if (k <= 20 || k >= nrq / 2.0 - 1)
+            {
+                // Evaluate the ratio f(y) / f(m) explicitly.
+                final double s = p / q;
+                final double as = s * (n + 1);
+                double f = 1.0;
+                if (m < y)
+                {
+                    for (int i = m + 1; i <= y; ++i)
+                    {
+                        f *= as / i - s;
+                    }
+                }
+                else if (m > y)
+                {
+                    for (int i = y + 1; i <= m; ++i)
+                    {
+                        f /= as / i - s;
+                    }
+                }
+                if (v <= f)
+                {
+                    return y;
+                }
+                continue;
+            }
+
+            // Squeeze using upper and lower bounds on log(f(y)), then fall back to Stirling's approximation.
+            final double rho = (k / nrq) * ((k * (k / 3.0 + 0.625) + 0.16666666666666666) / nrq + 0.5);
+            final double t = -k * (double) k / (2 * nrq);
+            final double logV = Math.log(v);
+            if (logV < t - rho)
+            {
+                return y;
+            }
+            if (logV > t + rho)
+            {
+                continue;
+            }
+            final double x1 = y + 1;
+            final double f1 = m + 1;
+            final double z = n + 1 - m;
+            final double w = n - y + 1;
+            final double x2 = x1 * x1;
+            final double f2 = f1 * f1;
+            final double z2 = z * z;
+            final double w2 = w * w;
+            // The published algorithm adds all four Stirling corrections, but the ones for y! and (n - y)! belong
+            // in the denominator of f(y) / f(m), so they're subtracted here.
+            final double bound = xm * Math.log(f1 / x1)
+                    + (n - m + 0.5) * Math.log(z / w)
+                    + (y - m) * Math.log(w * p / (x1 * q))
+                    + stirlingCorrection(f1, f2) + stirlingCorrection(z, z2)
+                    - stirlingCorrection(x1, x2) - stirlingCorrection(w, w2);
+            if (logV <= bound)
+            {
+                return y;
+            }
+        }
+    }
+
+    private static double stirlingCorrection(final double x, final double x2)
+    {
+        return (13860. - (462. - (132. - (99. - 140. / x2) / x2) / x2) / x2) / x / 166320.;
+    }
+}
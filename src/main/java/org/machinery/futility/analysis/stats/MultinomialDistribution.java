@@ -1,7 +1,28 @@
 package org.machinery.futility.analysis.stats;
 
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
 public final class MultinomialDistribution
 {
+    /**
+     * Ways of drawing a sample. Both produce the same distribution.
+     */
+    public enum Method
+    {
+        /**
+         * Draws a uniform value per trial and binary searches for its category. Costs O(trials * log(categories)).
+         * This is the original implementation, kept for regression comparisons.
+         */
+        BINARY_SEARCH,
+        /**
+         * Decomposes the multinomial into a chain of binomials: each category's count is binomial over the trials
+         * left, with the category's probability conditioned on not having fallen into an earlier category. Costs
+         * O(categories), however many trials there are.
+         */
+        CONDITIONAL_BINOMIAL
+    }
+
     private final double[] probabilityIntervals;
 
     public MultinomialDistribution(final double[] probabilities)
@@ -15,6 +36,11 @@ public final class MultinomialDistribution
         }
     }
 
+    public int getNumCategories()
+    {
+        return probabilityIntervals.length;
+    }
+
     private int firstLargerBinarySearch(final int start, final int end, final double target)
     {
         // If start equals end, we're as close as we can get.
@@ -33,13 +59,107 @@ public final class MultinomialDistribution
     }
 
     public int[] sample(final int numExperiments)
+    {
+        return sample(numExperiments, Method.CONDITIONAL_BINOMIAL);
+    }
+
+    public int[] sample(final int numExperiments, final Method method)
+    {
+        return sample(numExperiments, method, new SplittableRandom());
+    }
+
+    public int[] sample(final int numExperiments, final Method method, final SplittableRandom random)
     {
         final int[] results = new int[probabilityIntervals.length];
+        sample(numExperiments, method, random, results);
+        return results;
+    }
+
+    /**
+     * Draws a sample into an existing array, so repeated samples needn't allocate.
+     * @param results array with one slot per category. Overwritten.
+     */
+    public void sample(final int numExperiments, final Method method, final int[] results)
+    {
+        sample(numExperiments, method, new SplittableRandom(), results);
+    }
+
+    public void sample(final int numExperiments, final Method method, final SplittableRandom random,
+                       final int[] results)
+    {
+        if (results.length != probabilityIntervals.length)
+        {
+            throw new IllegalArgumentException("Expected room for " + probabilityIntervals.length + " categories, got "
+                    + results.length);
+        }
+        Arrays.fill(results, 0);
+        switch (method)
+        {
+            case BINARY_SEARCH:
+                sampleByBinarySearch(numExperiments, results, random);
+                break;
+            case CONDITIONAL_BINOMIAL:
+                sampleByConditionalBinomials(numExperiments, results, random);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown sampling method " + method);
+        }
+    }
+
+    /**
+     * The mean of {@link #sample}: each category's count in expectation, without drawing anything.
+     * @param results array with one slot per category. Overwritten.
+     */
+    public void expectedCounts(final int numExperiments, final double[] results)
+    {
+        if (results.length != probabilityIntervals.length)
+        {
+            throw new IllegalArgumentException("Expected room for " + probabilityIntervals.length + " categories, got "
+                    + results.length);
+        }
+        // Same clamped intervals as the conditional binomials, so this is the mass sampling actually assigns.
+        final int last = probabilityIntervals.length - 1;
+        double previous = 0;
+        for (int i = 0; i < last; ++i)
+        {
+            final double current = Math.min(1, Math.max(previous, probabilityIntervals[i]));
+            results[i] = numExperiments * (current - previous);
+            previous = current;
+        }
+        results[last] = numExperiments * (1 - previous);
+    }
+
+    private void sampleByBinarySearch(final int numExperiments, final int[] results, final SplittableRandom random)
+    {
         for (int i = numExperiments; i > 0; --i)
         {
-            final double p = Math.random();
+            final double p = random.nextDouble();
             ++results[firstLargerBinarySearch(0, probabilityIntervals.length - 1, p)];
         }
-        return results;
+    }
+
+    private void sampleByConditionalBinomials(final int numExperiments, final int[] results,
+                                              final SplittableRandom random)
+    {
+        // A uniform draw in [0, 1) lands in category i when it falls in (intervals[i - 1], intervals[i]], with
+        // anything past the second to last interval going to the last category. Clamping the intervals to [0, 1]
+        // gives each category exactly the mass the binary search would.
+        final int last = probabilityIntervals.length - 1;
+        int remaining = numExperiments;
+        double previous = 0;
+        for (int i = 0; i < last && remaining > 0; ++i)
+        {
+            final double current = Math.min(1, Math.max(previous, probabilityIntervals[i]));
+            final double mass = current - previous;
+            if (mass > 0)
+            {
+                final double conditional = Math.min(1, mass / (1 - previous));
+                final int count = BinomialSampler.sample(remaining, conditional, random);
+                results[i] = count;
+                remaining -= count;
+            }
+            previous = current;
+        }
+        results[last] += remaining;
     }
 }
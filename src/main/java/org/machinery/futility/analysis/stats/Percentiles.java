@@ -0,0 +1,135 @@
+package org.machinery.futility.analysis.stats;
+
+import java.util.Arrays;
+
+/**
+ * Selection based percentiles over primitive arrays. Finding the value at a percentile is done with introselect,
+ * which runs in linear time on average and falls back to sorting if partitioning degenerates, rather than by
+ * sorting or by keeping a heap of everything above the percentile.
+ */
+public final class Percentiles
+{
+    private Percentiles()
+    {
+    }
+
+    /**
+     * @param percentile percentile in [0, 1]
+     * @param size number of values
+     * @return the rank, in ascending order, of the value at percentile. This is the rank the old heap based
+     * approach settled on, clamped so a percentile of 1 means the largest value.
+     */
+    public static int rankOf(final double percentile, final int size)
+    {
+        if (percentile < 0 || percentile > 1)
+        {
+            throw new IllegalArgumentException("Percentile must be within [0, 1]: " + percentile);
+        }
+        return Math.min(size - 1, (int) (percentile * size));
+    }
+
+    /**
+     * Finds the values at several percentiles in one go. values is reordered in place, so pass a copy if the order
+     * matters.
+     * @param values values to select from. Must not be empty.
+     * @param percentiles percentiles in [0, 1], in any order
+     * @return the value at each percentile, in the order the percentiles were given
+     */
+    public static double[] atPercentiles(final double[] values, final double... percentiles)
+    {
+        if (values.length == 0)
+        {
+            throw new IllegalArgumentException("Cannot take a percentile of no values");
+        }
+        // Select ranks in ascending order; each selection leaves everything before its rank no greater than it, so
+        // the next selection only has to look at what's left.
+        final long[] ranks = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; ++i)
+        {
+            ranks[i] = ((long) rankOf(percentiles[i], values.length) << 32) | i;
+        }
+        Arrays.sort(ranks);
+        final double[] results = new double[percentiles.length];
+        int from = 0;
+        for (final long packed : ranks)
+        {
+            final int rank = (int) (packed >>> 32);
+            results[(int) packed] = select(values, from, values.length, rank);
+            from = rank;
+        }
+        return results;
+    }
+
+    /**
+     * Reorders values[from, to) so that values[k] is the value that would be there if the range were sorted, every
+     * value before it is no greater and every value after it is no smaller.
+     * @return values[k]
+     */
+    public static double select(final double[] values, final int from, final int to, final int k)
+    {
+        if (k < from || k >= to)
+        {
+            throw new IllegalArgumentException("Rank " + k + " is outside [" + from + ", " + to + ")");
+        }
+        int low = from;
+        int high = to;
+        // Partitioning should settle within about log2(n) rounds. Taking twice that means the pivots are poor, so
+        // sorting what's left bounds the cost.
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        while (high - low > 16)
+        {
+            if (--depthLimit < 0)
+            {
+                Arrays.sort(values, low, high);
+                return values[k];
+            }
+            final double pivot = medianOfThree(values[low], values[(low + high) >>> 1], values[high - 1]);
+            // Three way partition: [low, lt) < pivot, [lt, gt) == pivot, [gt, high) > pivot. Read counts repeat a
+            // lot, zero especially, so equal values need to be grouped rather than split across both sides.
+            int lt = low;
+            int gt = high;
+            int i = low;
+            while (i < gt)
+            {
+                final double value = values[i];
+                if (value < pivot)
+                {
+                    values[i++] = values[lt];
+                    values[lt++] = value;
+                }
+                else if (value > pivot)
+                {
+                    values[i] = values[--gt];
+                    values[gt] = value;
+                }
+                else
+                {
+                    ++i;
+                }
+            }
+            if (k < lt)
+            {
+                high = lt;
+            }
+            else if (k >= gt)
+            {
+                low = gt;
+            }
+            else
+            {
+                return pivot;
+            }
+        }
+        Arrays.sort(values, low, high);
+        return values[k];
+    }
+
+    private static double medianOfThree(final double a, final double b, final double c)
+    {
+        if (a < b)
+        {
+            return b < c ? b : Math.max(a, c);
+        }
+        return a < c ? a : Math.max(b, c);
+    }
+}
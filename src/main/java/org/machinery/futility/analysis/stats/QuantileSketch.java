@@ -0,0 +1,166 @@
+package org.machinery.futility.analysis.stats;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Streaming quantile estimate with bounded relative error, in the style of DDSketch. Positive values are counted in
+ * logarithmically sized buckets, so any quantile it reports is within a factor of (1 +/- relativeAccuracy) of the
+ * true value, using memory proportional to the log of the range of values rather than to how many were added.
+ * Values at or below zero are counted exactly, as read counts are mostly zero.
+ */
+public final class QuantileSketch implements Serializable
+{
+    private static final long serialVersionUID = -4521460375311735283L;
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    // counts[i] is the number of values in bucket (offset + i), which holds values in (gamma^(b-1), gamma^b].
+    private long[] counts = new long[0];
+    private int offset;
+    private long zeroCount;
+    // Negative values are rare enough that they're kept exactly; this sorted array only grows when they appear.
+    private double[] negatives = new double[0];
+    private int negativeCount;
+    private long count;
+
+    public QuantileSketch(final double relativeAccuracy)
+    {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1)
+        {
+            throw new IllegalArgumentException("Relative accuracy must be within (0, 1): " + relativeAccuracy);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public double getRelativeAccuracy()
+    {
+        return relativeAccuracy;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return an empty sketch with the same accuracy
+     */
+    public QuantileSketch emptyCopy()
+    {
+        return new QuantileSketch(relativeAccuracy);
+    }
+
+    public void add(final double value)
+    {
+        ++count;
+        if (value > 0)
+        {
+            final int bucket = (int) Math.ceil(Math.log(value) / logGamma);
+            ensureBucket(bucket);
+            ++counts[bucket - offset];
+        }
+        else if (value == 0)
+        {
+            ++zeroCount;
+        }
+        else
+        {
+            if (negativeCount == negatives.length)
+            {
+                negatives = Arrays.copyOf(negatives, Math.max(8, negativeCount * 2));
+            }
+            negatives[negativeCount++] = value;
+        }
+    }
+
+    private void ensureBucket(final int bucket)
+    {
+        if (counts.length == 0)
+        {
+            counts = new long[16];
+            offset = bucket - 8;
+        }
+        else if (bucket < offset)
+        {
+            final int grow = Math.max(offset - bucket, counts.length);
+            final long[] grown = new long[counts.length + grow];
+            System.arraycopy(counts, 0, grown, grow, counts.length);
+            counts = grown;
+            offset -= grow;
+        }
+        else if (bucket - offset >= counts.length)
+        {
+            counts = Arrays.copyOf(counts, Math.max(bucket - offset + 1, counts.length * 2));
+        }
+    }
+
+    /**
+     * Adds everything counted by other, which must have the same accuracy, to this sketch.
+     */
+    public void merge(final QuantileSketch other)
+    {
+        if (other.relativeAccuracy != relativeAccuracy)
+        {
+            throw new IllegalArgumentException("Cannot merge sketches of different accuracies");
+        }
+        for (int i = 0; i < other.counts.length; ++i)
+        {
+            if (other.counts[i] > 0)
+            {
+                ensureBucket(other.offset + i);
+                counts[other.offset + i - offset] += other.counts[i];
+            }
+        }
+        for (int i = 0; i < other.negativeCount; ++i)
+        {
+            add(other.negatives[i]);
+        }
+        zeroCount += other.zeroCount;
+        count += other.count - other.negativeCount;
+    }
+
+    /**
+     * @param percentiles percentiles in [0, 1]
+     * @return the estimated value at each percentile, using the same ranks as {@link Percentiles#atPercentiles}
+     */
+    public double[] atPercentiles(final double... percentiles)
+    {
+        if (count == 0)
+        {
+            throw new IllegalStateException("Cannot take a percentile of no values");
+        }
+        final double[] sortedNegatives = Arrays.copyOf(negatives, negativeCount);
+        Arrays.sort(sortedNegatives);
+        final double[] results = new double[percentiles.length];
+        for (int p = 0; p < percentiles.length; ++p)
+        {
+            final long rank = Math.min(count - 1, (long) (percentiles[p] * count));
+            if (rank < negativeCount)
+            {
+                results[p] = sortedNegatives[(int) rank];
+                continue;
+            }
+            long remaining = rank - negativeCount;
+            if (remaining < zeroCount)
+            {
+                results[p] = 0;
+                continue;
+            }
+            remaining -= zeroCount;
+            for (int i = 0; i < counts.length; ++i)
+            {
+                if (remaining < counts[i])
+                {
+                    // The midpoint, relative to the bucket's bounds, is within relativeAccuracy of anything in it.
+                    results[p] = 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+                    break;
+                }
+                remaining -= counts[i];
+            }
+        }
+        return results;
+    }
+}
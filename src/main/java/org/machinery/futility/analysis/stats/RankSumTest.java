@@ -0,0 +1,130 @@
+package org.machinery.futility.analysis.stats;
+
+import org.apache.commons.math3.special.Erf;
+
+import java.util.Arrays;
+
+/**
+ * Two-sided Mann-Whitney U test using the normal approximation, computed the same way as commons-math's
+ * MannWhitneyUTest: tied values share the average of their ranks, and the variance isn't corrected for ties. Its
+ * p-values match commons-math's to within rounding.
+ * Rather than ranking the concatenated samples, each sample is sorted on its own into scratch buffers that are
+ * reused from test to test, and the two are merged to sum the first sample's ranks.
+ *
+ * Not thread safe, because of the scratch buffers; give each thread its own.
+ */
+public final class RankSumTest
+{
+    private double[] xScratch = new double[64];
+    private double[] yScratch = new double[64];
+
+    /**
+     * @return the p-value of the test between x[xFrom, xTo) and y[yFrom, yTo). The arrays aren't modified.
+     */
+    public double pValue(final double[] x, final int xFrom, final int xTo,
+                         final double[] y, final int yFrom, final int yTo)
+    {
+        return pValue(x, xFrom, xTo, 0, y, yFrom, yTo, 0);
+    }
+
+    /**
+     * For samples stored sparsely, without their zeros.
+     * @return the p-value of the test between x[xFrom, xTo) plus xZeros zeros and y[yFrom, yTo) plus yZeros zeros.
+     * The arrays aren't modified.
+     */
+    public double pValue(final double[] x, final int xFrom, final int xTo, final int xZeros,
+                         final double[] y, final int yFrom, final int yTo, final int yZeros)
+    {
+        final int n1 = xTo - xFrom + xZeros;
+        final int n2 = yTo - yFrom + yZeros;
+        if (n1 <= 0 || n2 <= 0)
+        {
+            throw new IllegalArgumentException("Both samples need at least one value, got " + n1 + " and " + n2);
+        }
+        if (xScratch.length < n1)
+        {
+            xScratch = new double[Math.max(n1, xScratch.length * 2)];
+        }
+        if (yScratch.length < n2)
+        {
+            yScratch = new double[Math.max(n2, yScratch.length * 2)];
+        }
+        sortWithZeros(x, xFrom, xTo, xZeros, xScratch);
+        sortWithZeros(y, yFrom, yTo, yZeros, yScratch);
+
+        // Walk both samples in order a run of equal values at a time. A run covering ranks (rank, rank + t] gives
+        // each of its values the average rank, rank + (t + 1) / 2.
+        double sumRankX = 0;
+        long rank = 0;
+        int i = 0;
+        int j = 0;
+        while (i < n1 || j < n2)
+        {
+            final double value = j == n2 || (i < n1 && xScratch[i] <= yScratch[j]) ? xScratch[i] : yScratch[j];
+            if (Double.isNaN(value))
+            {
+                // NaNs sort last. Ranks of NaN are NaN, as with commons-math's fixed NaN strategy.
+                sumRankX = Double.NaN;
+                break;
+            }
+            int xTies = 0;
+            while (i < n1 && xScratch[i] == value)
+            {
+                ++i;
+                ++xTies;
+            }
+            int yTies = 0;
+            while (j < n2 && yScratch[j] == value)
+            {
+                ++j;
+                ++yTies;
+            }
+            final long ties = xTies + yTies;
+            sumRankX += xTies * (rank + (ties + 1) / 2.0);
+            rank += ties;
+        }
+
+        final long n1n2 = (long) n1 * n2;
+        final double u1 = sumRankX - ((long) n1 * (n1 + 1)) / 2;
+        final double uMax = Math.max(u1, n1n2 - u1);
+        final double uMin = n1n2 - uMax;
+        return asymptoticPValue(uMin, n1, n2);
+    }
+
+    /**
+     * Sorts values[from, to) plus zeros zeros into the start of scratch. Only the stored values are sorted; the zeros
+     * are then slotted in after any negative values.
+     */
+    private static void sortWithZeros(final double[] values, final int from, final int to, final int zeros,
+                                      final double[] scratch)
+    {
+        final int stored = to - from;
+        System.arraycopy(values, from, scratch, zeros, stored);
+        Arrays.sort(scratch, zeros, zeros + stored);
+        int negatives = 0;
+        while (negatives < stored && scratch[zeros + negatives] < 0)
+        {
+            ++negatives;
+        }
+        System.arraycopy(scratch, zeros, scratch, 0, negatives);
+        Arrays.fill(scratch, negatives, negatives + zeros, 0);
+    }
+
+    private static double asymptoticPValue(final double uMin, final int n1, final int n2)
+    {
+        final long n1n2 = (long) n1 * n2;
+        final double mean = n1n2 / 2.0;
+        final double variance = n1n2 * (n1 + n2 + 1) / 12.0;
+        final double z = (uMin - mean) / Math.sqrt(variance);
+        // Twice the standard normal's lower tail at z.
+        if (z < -40)
+        {
+            return 0;
+        }
+        if (z > 40)
+        {
+            return 2;
+        }
+        return 2 * 0.5 * Erf.erfc(-z / Math.sqrt(2));
+    }
+}
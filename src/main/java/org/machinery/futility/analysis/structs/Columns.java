@@ -0,0 +1,85 @@
+package org.machinery.futility.analysis.structs;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Helpers for the primitive columns of tracks and indexes, which are buffers either wrapping heap arrays or
+ * allocated from {@link OffHeapMemory}. Columns are shared between threads and structures, so they're only ever
+ * read by absolute index, and their positions stay at zero; bulk copies go through duplicates.
+ */
+final class Columns
+{
+    private Columns()
+    {
+    }
+
+    /**
+     * @param memory memory to allocate from, or null for the heap
+     */
+    static IntBuffer ints(final OffHeapMemory memory, final int count)
+    {
+        return null == memory ? IntBuffer.allocate(count) : memory.allocateInts(count);
+    }
+
+    static DoubleBuffer doubles(final OffHeapMemory memory, final int count)
+    {
+        return null == memory ? DoubleBuffer.allocate(count) : memory.allocateDoubles(count);
+    }
+
+    /**
+     * @return a view of column's [from, to), sharing its values and indexed from zero
+     */
+    static IntBuffer slice(final IntBuffer column, final int from, final int to)
+    {
+        final IntBuffer view = column.duplicate();
+        view.position(from);
+        view.limit(to);
+        return view.slice();
+    }
+
+    /**
+     * @return a copy of column's [from, to), in memory
+     */
+    static IntBuffer copy(final IntBuffer column, final int from, final int to, final OffHeapMemory memory)
+    {
+        final IntBuffer copy = ints(memory, to - from);
+        final IntBuffer source = column.duplicate();
+        source.position(from);
+        source.limit(to);
+        copy.duplicate().put(source);
+        return copy;
+    }
+
+    static DoubleBuffer copy(final DoubleBuffer column, final OffHeapMemory memory)
+    {
+        final DoubleBuffer copy = doubles(memory, column.capacity());
+        copy.duplicate().put(column.duplicate());
+        return copy;
+    }
+
+    /**
+     * @return the heap array column wraps, if it wraps one exactly, or else a copy of the column on the heap
+     */
+    static int[] toArray(final IntBuffer column)
+    {
+        if (column.hasArray() && column.arrayOffset() == 0 && column.array().length == column.capacity())
+        {
+            return column.array();
+        }
+        final int[] values = new int[column.capacity()];
+        column.duplicate().get(values);
+        return values;
+    }
+
+    static double[] toArray(final DoubleBuffer column)
+    {
+        if (column.hasArray() && column.arrayOffset() == 0 && column.array().length == column.capacity())
+        {
+            return column.array();
+        }
+        final double[] values = new double[column.capacity()];
+        column.duplicate().get(values);
+        return values;
+    }
+}
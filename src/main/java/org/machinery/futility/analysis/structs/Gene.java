@@ -8,12 +8,20 @@ public final class Gene implements Serializable
     private final String name;
     private final int start;
     private final int end;
+    // Chromosome or plasmid the gene is on. Null for gene tables that don't say, which match every contig.
+    private final String contig;
 
-    private Gene(final String name, final int start, final int end)
+    public Gene(final String name, final int start, final int end)
+    {
+        this(name, start, end, null);
+    }
+
+    public Gene(final String name, final int start, final int end, final String contig)
     {
         this.name = name;
         this.start = start;
         this.end = end;
+        this.contig = contig;
     }
 
     public String getName()
@@ -31,6 +39,18 @@ public final class Gene implements Serializable
         return end;
     }
 
+    /**
+     * @return the contig the gene is on, or null if its gene table didn't say
+     */
+    public String getContig()
+    {
+        return contig;
+    }
+
+    /**
+     * @param line a name, start and end, and optionally the contig, separated by whitespace. See
+     * {@link #parseContig(String)} for the fields that aren't taken as contigs.
+     */
     public static Gene parseRecord(final String line)
     {
         final String[] values = line.split("\\s+");
@@ -39,6 +59,20 @@ public final class Gene implements Serializable
         name = values[0];
         start = Integer.parseInt(values[1]);
         end = Integer.parseInt(values[2]);
-        return new Gene(name, start, end);
+        return new Gene(name, start, end, parseContig(values.length > 3 ? values[3] : null));
+    }
+
+    /**
+     * @param field the field after a gene's end, or null if there is none
+     * @return the contig field names, or null if there is no field or it's a strand (+, - or .), which some gene
+     * tables have in that column instead
+     */
+    public static String parseContig(final String field)
+    {
+        if (null == field || "+".equals(field) || "-".equals(field) || ".".equals(field))
+        {
+            return null;
+        }
+        return field;
     }
 }
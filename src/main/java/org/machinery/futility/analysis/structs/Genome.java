@@ -1,27 +1,139 @@
 package org.machinery.futility.analysis.structs;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * We use a Genome for two things - for analysis of experiments (this provides a mapping for gene name to various
  * reads) and for displaying labels on the visualizer screen. Since we need both approaches, this structure
- * has an index that maps positional information to the name of the gene.
+ * has an index that maps positional information to the genes covering that position.
+ *
+ * Organisms with several chromosomes or plasmids have a separate index per contig, since their positions overlap.
+ * Genes whose gene table didn't name a contig are treated as being on every contig. Methods taking positions without
+ * a contig are for genomes with at most one named contig, and throw {@link IllegalStateException} for the rest
+ * rather than mix up genes from contigs whose positions overlap.
  */
 public final class Genome implements Serializable
 {
 
     private static final long serialVersionUID = -5914141664925486739L;
+    // Only the genes are written; the indexes are rebuilt from them when a genome is read.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("geneMap", Map.class),
+            new ObjectStreamField("genes", Gene[].class)
+    };
     private final String name;
     private final Map<String, Gene> geneMap;
-    private final Map<Integer, String> index;
+    // Genes in the order they were loaded. A gene's position in this array is its id within the index.
+    private final Gene[] genes;
+    private final Map<String, Integer> geneIds;
+    // Distinct contigs of the genes, in order of first appearance, with null for genes that didn't name one.
+    private final String[] contigs;
+    // Index into contigs of each gene.
+    private final int[] geneContigs;
+    // One index per contig. contigGenes[c] translates the ids of contigIndexes[c] into gene ids.
+    private final IntervalIndex[] contigIndexes;
+    private final int[][] contigGenes;
+    private transient IntervalIndex geneIndex;
+    private transient Map<Integer, String> index;
+    // Set by readObject to the genome readResolve returns in place of the one read.
+    private transient Genome resolved;
 
 
-    public Genome(final String name, final Map<String, Gene> geneMap, final Map<Integer, String> index)
+    public Genome(final String name, final Map<String, Gene> geneMap, final List<Gene> genes)
     {
         this.name = name;
         this.geneMap = geneMap;
-        this.index = index;
+        this.genes = genes.toArray(new Gene[genes.size()]);
+        this.geneIds = new HashMap<>();
+        final Map<String, Integer> contigIds = new HashMap<>();
+        this.geneContigs = new int[this.genes.length];
+        final int[] contigSizes = new int[this.genes.length + 1];
+        for (int i = 0; i < this.genes.length; ++i)
+        {
+            // Later genes replace earlier ones of the same name, matching the gene map.
+            geneIds.put(this.genes[i].getName(), i);
+            Integer contig = contigIds.get(this.genes[i].getContig());
+            if (null == contig)
+            {
+                contig = contigIds.size();
+                contigIds.put(this.genes[i].getContig(), contig);
+            }
+            geneContigs[i] = contig;
+            ++contigSizes[contig];
+        }
+        this.contigs = new String[contigIds.size()];
+        for (final Map.Entry<String, Integer> contig : contigIds.entrySet())
+        {
+            contigs[contig.getValue()] = contig.getKey();
+        }
+        this.contigIndexes = new IntervalIndex[contigs.length];
+        this.contigGenes = new int[contigs.length][];
+        final int[][] starts = new int[contigs.length][];
+        final int[][] ends = new int[contigs.length][];
+        for (int c = 0; c < contigs.length; ++c)
+        {
+            contigGenes[c] = new int[contigSizes[c]];
+            starts[c] = new int[contigSizes[c]];
+            ends[c] = new int[contigSizes[c]];
+        }
+        // Place each gene in its contig in one pass, keeping the genes' order within the contig.
+        final int[] next = new int[contigs.length];
+        for (int i = 0; i < this.genes.length; ++i)
+        {
+            final int contig = geneContigs[i];
+            final int member = next[contig]++;
+            contigGenes[contig][member] = i;
+            starts[contig][member] = this.genes[i].getStart();
+            ends[contig][member] = this.genes[i].getEnd();
+        }
+        for (int c = 0; c < contigs.length; ++c)
+        {
+            contigIndexes[c] = IntervalIndex.build(starts[c], ends[c], contigSizes[c]);
+        }
+    }
+
+    private Genome(final String name, final Genome genome)
+    {
+        this.name = name;
+        this.geneMap = genome.geneMap;
+        this.genes = genome.genes;
+        this.geneIds = genome.geneIds;
+        this.contigs = genome.contigs;
+        this.geneContigs = genome.geneContigs;
+        this.contigIndexes = genome.contigIndexes;
+        this.contigGenes = genome.contigGenes;
+    }
+
+    /**
+     * @return this genome under another name, sharing its genes and indexes rather than rebuilding them
+     */
+    public Genome withName(final String newName)
+    {
+        return new Genome(newName, this);
+    }
+
+    /**
+     * The map doesn't keep the order genes were loaded in, so they're ordered by start and then by name. Where genes
+     * overlap, {@link #geneAt(int)} returns the one that sorts last.
+     * @deprecated the per-base index is derived from the genes now, so the supplied index is ignored.
+     */
+    @Deprecated
+    public Genome(final String name, final Map<String, Gene> geneMap, final Map<Integer, String> index)
+    {
+        this(name, geneMap, byPosition(geneMap.values()));
     }
 
     @SuppressWarnings("unused")
@@ -36,9 +148,259 @@ public final class Genome implements Serializable
         return geneMap;
     }
 
+    /**
+     * @return number of genes loaded, including any that were replaced in the gene map by a later gene of the same
+     * name. Gene ids run from 0 up to this count.
+     */
+    public int getGeneCount()
+    {
+        return genes.length;
+    }
+
+    public Gene getGene(final int geneId)
+    {
+        return genes[geneId];
+    }
+
+    /**
+     * @param geneName name of a gene
+     * @return id of the gene that {@link #getMap()} holds for geneName, or -1 if there is none
+     */
+    public int getGeneId(final String geneName)
+    {
+        final Integer id = geneIds.get(geneName);
+        return null == id ? -1 : id;
+    }
+
+    /**
+     * @return the contigs genes are on, in the order they were first loaded. Includes null if any gene didn't name
+     * its contig.
+     */
+    @SuppressWarnings("unused")
+    public List<String> getContigs()
+    {
+        return Collections.unmodifiableList(Arrays.asList(contigs));
+    }
+
+    /**
+     * @param contig a contig's name, or null
+     * @return index of contig within {@link #getContigs()}, or -1 if no gene is on it
+     */
+    public int getContigId(final String contig)
+    {
+        for (int c = 0; c < contigs.length; ++c)
+        {
+            if (null == contig ? null == contigs[c] : contig.equals(contigs[c]))
+            {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index within {@link #getContigs()} of the gene's contig
+     */
+    public int getGeneContigId(final int geneId)
+    {
+        return geneContigs[geneId];
+    }
+
+    /**
+     * @param position position within the genome
+     * @return the gene covering position, or null if it isn't in a gene. Where genes overlap, the one loaded last
+     * is returned.
+     * @throws IllegalStateException if genes are on several contigs; use {@link #geneAt(String, int)}
+     */
+    @SuppressWarnings("unused")
+    public Gene geneAt(final int position)
+    {
+        checkSingleContig();
+        int id = -1;
+        for (int c = 0; c < contigs.length; ++c)
+        {
+            id = Math.max(id, lookup(c, position));
+        }
+        return id < 0 ? null : genes[id];
+    }
+
+    /**
+     * @param contig the contig position is on
+     * @param position position within the contig
+     * @return the gene on contig, or on no particular contig, covering position, or null if it isn't in a gene.
+     * Where genes overlap, the one loaded last is returned.
+     */
+    @SuppressWarnings("unused")
+    public Gene geneAt(final String contig, final int position)
+    {
+        final int id = Math.max(lookup(getContigId(contig), position), lookup(getContigId(null), position));
+        return id < 0 ? null : genes[id];
+    }
+
+    /**
+     * Positions without a contig are only unambiguous when at most one contig is named, as genes without a contig
+     * are on every contig anyway.
+     */
+    private void checkSingleContig()
+    {
+        final int named = getContigId(null) < 0 ? contigs.length : contigs.length - 1;
+        if (named > 1)
+        {
+            throw new IllegalStateException("Positions need a contig in a genome with " + named + " contigs");
+        }
+    }
+
+    private int lookup(final int contig, final int position)
+    {
+        if (contig < 0)
+        {
+            return -1;
+        }
+        final int id = contigIndexes[contig].lookup(position);
+        return id < 0 ? -1 : contigGenes[contig][id];
+    }
+
+    /**
+     * @param position position within the genome
+     * @return every gene covering position, in the order they were loaded
+     * @throws IllegalStateException if genes are on several contigs; use {@link #genesAt(String, int)}
+     */
+    @SuppressWarnings("unused")
+    public List<Gene> genesAt(final int position)
+    {
+        checkSingleContig();
+        int[] ids = new int[0];
+        for (int c = 0; c < contigs.length; ++c)
+        {
+            ids = lookupAll(c, position, ids);
+        }
+        return toGenes(ids);
+    }
+
+    /**
+     * @param contig the contig position is on
+     * @param position position within the contig
+     * @return every gene on contig, or on no particular contig, covering position, in the order they were loaded
+     */
+    @SuppressWarnings("unused")
+    public List<Gene> genesAt(final String contig, final int position)
+    {
+        final int nullContig = getContigId(null);
+        final int[] ids = lookupAll(getContigId(contig), position, new int[0]);
+        return toGenes(null == contig ? ids : lookupAll(nullContig, position, ids));
+    }
+
+    /**
+     * @return found, followed by the ids of the genes on contig covering position
+     */
+    private int[] lookupAll(final int contig, final int position, final int[] found)
+    {
+        if (contig < 0)
+        {
+            return found;
+        }
+        final int[] local = contigIndexes[contig].lookupAll(position);
+        final int[] all = Arrays.copyOf(found, found.length + local.length);
+        for (int i = 0; i < local.length; ++i)
+        {
+            all[found.length + i] = contigGenes[contig][local[i]];
+        }
+        return all;
+    }
+
+    private List<Gene> toGenes(final int[] ids)
+    {
+        if (ids.length == 0)
+        {
+            return Collections.emptyList();
+        }
+        Arrays.sort(ids);
+        final List<Gene> found = new ArrayList<>(ids.length);
+        for (final int id : ids)
+        {
+            found.add(genes[id]);
+        }
+        return found;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException
+    {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("geneMap", geneMap);
+        fields.put("genes", genes);
+        out.writeFields();
+    }
+
+    /**
+     * Reads genomes written by this class or by its versions that kept only the gene map and a per-base index. Their
+     * genes are ordered as the deprecated constructor orders them.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream.GetField fields = in.readFields();
+        final Map<String, Gene> map = (Map<String, Gene>) fields.get("geneMap", null);
+        final Gene[] loaded = (Gene[]) fields.get("genes", null);
+        resolved = new Genome((String) fields.get("name", null), map,
+                null == loaded ? byPosition(map.values()) : Arrays.asList(loaded));
+    }
+
+    private Object readResolve()
+    {
+        return resolved;
+    }
+
+    /**
+     * @return genes ordered by start, and then by name
+     */
+    private static List<Gene> byPosition(final Collection<Gene> genes)
+    {
+        final List<Gene> sorted = new ArrayList<>(genes);
+        Collections.sort(sorted, new Comparator<Gene>()
+        {
+            @Override
+            public int compare(final Gene o1, final Gene o2)
+            {
+                final int byStart = Integer.compare(o1.getStart(), o2.getStart());
+                return byStart != 0 ? byStart : o1.getName().compareTo(o2.getName());
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Map view of the gene index, from position to the name of the gene covering it. Kept for callers that predate
+     * {@link #geneAt(int)}; lookups are answered by the interval index rather than a per-base table.
+     * @throws IllegalStateException if genes are on several contigs
+     */
     @SuppressWarnings("unused")
     public Map<Integer, String> getIndex()
     {
+        if (null == index)
+        {
+            checkSingleContig();
+            if (null == geneIndex)
+            {
+                // Only this view indexes every contig together, so its index is only built if it's asked for.
+                final int[] starts = new int[genes.length];
+                final int[] ends = new int[genes.length];
+                for (int i = 0; i < genes.length; ++i)
+                {
+                    starts[i] = genes[i].getStart();
+                    ends[i] = genes[i].getEnd();
+                }
+                geneIndex = IntervalIndex.build(starts, ends, genes.length);
+            }
+            index = new PositionMap<String>(geneIndex)
+            {
+                @Override
+                protected String valueFor(final int id)
+                {
+                    return genes[id].getName();
+                }
+            };
+        }
         return index;
     }
 }
@@ -9,6 +9,8 @@ import java.io.Serializable;
 public final class IgvRecord implements Serializable
 {
     private static final long serialVersionUID = 5023223237667098932L;
+    // Can be null, for records made without one
+    private final String contig;
     private final int start;
     private final int end;
     // Reads can be normalized, therefore they may be a double
@@ -18,12 +20,26 @@ public final class IgvRecord implements Serializable
 
     public IgvRecord(final int start, final int end, final double reads, final String geneName)
     {
+        this(null, start, end, reads, geneName);
+    }
+
+    public IgvRecord(final String contig, final int start, final int end, final double reads, final String geneName)
+    {
+        this.contig = contig;
         this.start = start;
         this.end = end;
         this.reads = reads;
         this.geneName = geneName;
     }
 
+    /**
+     * @return the chromosome or plasmid the record is on, or null if it wasn't given one
+     */
+    public String getContig()
+    {
+        return contig;
+    }
+
     public int getStart()
     {
         return start;
@@ -47,8 +63,10 @@ public final class IgvRecord implements Serializable
     public static IgvRecord parseRecord(final String line)
     {
         final String[] values = line.trim().split("\\s+");
+        final String contig;
         final int start, end;
         final double reads;
+        contig = values[0];
         start = Integer.parseInt(values[1]);
         end = Integer.parseInt(values[2]);
         reads = Double.parseDouble(values[3]);
@@ -61,6 +79,6 @@ public final class IgvRecord implements Serializable
         {
             geneName = null;
         }
-        return new IgvRecord(start, end, reads, geneName);
+        return new IgvRecord(contig, start, end, reads, geneName);
     }
 }
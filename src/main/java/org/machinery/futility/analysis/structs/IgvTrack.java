@@ -0,0 +1,936 @@
+package org.machinery.futility.analysis.structs;
+
+import org.machinery.futility.analysis.stats.QuantileSketch;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar form of the records in an IGV file. Rather than one {@link IgvRecord} per line, each field is kept in
+ * its own primitive column, and gene names are dictionary encoded: every record stores the id of its gene name in
+ * a small table of distinct names, or -1 when the record isn't in a gene. Columns wrap heap arrays unless the track
+ * was copied into {@link OffHeapMemory}, which the accessors don't distinguish.
+ *
+ * Records are kept grouped by contig, in the order contigs first appear, so a contig's records are a range of
+ * record indexes and need no column of their own. Each contig has its own position index, since positions on
+ * different contigs overlap. Methods taking positions without a contig are for single-contig data, and throw
+ * {@link IllegalStateException} for tracks with several contigs rather than answer for just one of them.
+ */
+public final class IgvTrack implements Serializable
+{
+    private static final long serialVersionUID = -2384610919224016417L;
+    // Columns are saved as arrays, as they were before they could live off the heap.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("starts", int[].class),
+            new ObjectStreamField("ends", int[].class),
+            new ObjectStreamField("reads", double[].class),
+            new ObjectStreamField("geneIds", int[].class),
+            new ObjectStreamField("geneNames", String[].class),
+            new ObjectStreamField("contigNames", String[].class),
+            new ObjectStreamField("contigBounds", int[].class),
+            new ObjectStreamField("positions", IntervalIndex[].class)
+    };
+    // Only assigned by the constructor and readObject.
+    private IntBuffer starts;
+    private IntBuffer ends;
+    // Reads can be normalized, therefore they may be a double
+    private DoubleBuffer reads;
+    private IntBuffer geneIds;
+    private String[] geneNames;
+    // Contig names, including null for records without one, and the range of records on each: contig c's records
+    // are [contigBounds[c], contigBounds[c + 1]). There's always at least one contig, even if it's empty.
+    private String[] contigNames;
+    private int[] contigBounds;
+    // One per contig, sharing the start and end columns when records are sorted by position, which IGV files
+    // normally are. Null until first use for tracks assembled from trusted columns.
+    private volatile IntervalIndex[] positions;
+    // Memory the columns are in, which derived columns are allocated from too, or null for the heap. Tracks are
+    // read back onto the heap.
+    private transient OffHeapMemory memory;
+    // Built on first use, since not every track is queried by range.
+    private transient volatile PrefixSums prefixSums;
+
+    private IgvTrack(final IntBuffer starts, final IntBuffer ends, final DoubleBuffer reads, final IntBuffer geneIds,
+                     final String[] geneNames, final String[] contigNames, final int[] contigBounds,
+                     final IntervalIndex[] positions, final OffHeapMemory memory)
+    {
+        this.starts = starts;
+        this.ends = ends;
+        this.reads = reads;
+        this.geneIds = geneIds;
+        this.geneNames = geneNames;
+        this.contigNames = contigNames;
+        this.contigBounds = contigBounds;
+        this.positions = positions;
+        this.memory = memory;
+    }
+
+    private static IntervalIndex[] indexContigs(final IntBuffer starts, final IntBuffer ends,
+                                                final int[] contigBounds, final OffHeapMemory memory)
+    {
+        final IntervalIndex[] positions = new IntervalIndex[contigBounds.length - 1];
+        for (int c = 0; c < positions.length; ++c)
+        {
+            positions[c] = IntervalIndex.build(starts, ends, contigBounds[c], contigBounds[c + 1], memory);
+        }
+        return positions;
+    }
+
+    /**
+     * Assembles a track from columns such as those saved by {@link #putStarts} and friends. The arrays are used as
+     * they are, not copied.
+     * @param geneIds dictionary id of each record's gene name, or -1 for none
+     * @param geneNames the gene name dictionary
+     */
+    public static IgvTrack fromColumns(final int[] starts, final int[] ends, final double[] reads, final int[] geneIds,
+                                       final String[] geneNames)
+    {
+        return fromColumns(starts, ends, reads, geneIds, geneNames, new String[]{null}, new int[]{0, starts.length});
+    }
+
+    /**
+     * @param contigNames name of each contig, which may include null
+     * @param contigBounds offsets of each contig's first record, followed by the number of records
+     */
+    public static IgvTrack fromColumns(final int[] starts, final int[] ends, final double[] reads, final int[] geneIds,
+                                       final String[] geneNames, final String[] contigNames,
+                                       final int[] contigBounds)
+    {
+        return fromColumns(IntBuffer.wrap(starts), IntBuffer.wrap(ends), DoubleBuffer.wrap(reads),
+                IntBuffer.wrap(geneIds), geneNames, contigNames, contigBounds, null);
+    }
+
+    /**
+     * Assembles a track from columns that are already in place, such as ones read straight into off-heap memory.
+     * The columns are used as they are, not copied, and are only read by absolute index.
+     * @param memory memory the columns were allocated from, which the position index is allocated from too, or null
+     * if they're on the heap
+     */
+    public static IgvTrack fromColumns(final IntBuffer starts, final IntBuffer ends, final DoubleBuffer reads,
+                                       final IntBuffer geneIds, final String[] geneNames,
+                                       final String[] contigNames, final int[] contigBounds,
+                                       final OffHeapMemory memory)
+    {
+        final int size = starts.capacity();
+        checkShape(starts, ends, reads, geneIds, contigNames, contigBounds);
+        for (int i = 0; i < size; ++i)
+        {
+            final int geneId = geneIds.get(i);
+            if (geneId < -1 || geneId >= geneNames.length)
+            {
+                throw new IllegalArgumentException("Gene id " + geneId + " is outside the dictionary");
+            }
+        }
+        return new IgvTrack(starts, ends, reads, geneIds, geneNames, contigNames, contigBounds,
+                indexContigs(starts, ends, contigBounds, memory), memory);
+    }
+
+    /**
+     * Assembles a track from columns known to be consistent, such as ones mapped from a file this library saved, in
+     * time independent of the number of records: only the columns' lengths and the contig bounds are checked, nothing
+     * is copied, and the position index is built when it's first needed.
+     * @param memory memory to allocate derived columns from, or null for the heap
+     */
+    public static IgvTrack fromTrustedColumns(final IntBuffer starts, final IntBuffer ends, final DoubleBuffer reads,
+                                              final IntBuffer geneIds, final String[] geneNames,
+                                              final String[] contigNames, final int[] contigBounds,
+                                              final OffHeapMemory memory)
+    {
+        checkShape(starts, ends, reads, geneIds, contigNames, contigBounds);
+        return new IgvTrack(starts, ends, reads, geneIds, geneNames, contigNames, contigBounds, null, memory);
+    }
+
+    private static void checkShape(final IntBuffer starts, final IntBuffer ends, final DoubleBuffer reads,
+                                   final IntBuffer geneIds, final String[] contigNames, final int[] contigBounds)
+    {
+        final int size = starts.capacity();
+        if (ends.capacity() != size || reads.capacity() != size || geneIds.capacity() != size)
+        {
+            throw new IllegalArgumentException("Columns differ in length: " + size + ", " + ends.capacity()
+                    + ", " + reads.capacity() + ", " + geneIds.capacity());
+        }
+        if (contigNames.length == 0 || contigBounds.length != contigNames.length + 1 || contigBounds[0] != 0
+                || contigBounds[contigNames.length] != size)
+        {
+            throw new IllegalArgumentException("Contig bounds don't cover the " + size + " records");
+        }
+        for (int c = 0; c < contigNames.length; ++c)
+        {
+            if (contigBounds[c + 1] < contigBounds[c])
+            {
+                throw new IllegalArgumentException("Contig " + contigNames[c] + " ends before it starts");
+            }
+        }
+    }
+
+    /**
+     * Copies this track's columns and position indexes into memory, so they no longer take up heap. The copy reads
+     * exactly as this track does.
+     * @return the copy, which can't be used once memory is closed
+     */
+    public IgvTrack copyTo(final OffHeapMemory memory)
+    {
+        final int size = size();
+        final IntBuffer startsCopy = Columns.copy(starts, 0, size, memory);
+        final IntBuffer endsCopy = Columns.copy(ends, 0, size, memory);
+        return new IgvTrack(startsCopy, endsCopy, Columns.copy(reads, memory),
+                Columns.copy(geneIds, 0, size, memory), geneNames, contigNames, contigBounds,
+                indexContigs(startsCopy, endsCopy, contigBounds, memory), memory);
+    }
+
+    /**
+     * @return whether this track's columns are outside the heap
+     */
+    public boolean isOffHeap()
+    {
+        return starts.isDirect();
+    }
+
+    public int size()
+    {
+        return starts.capacity();
+    }
+
+    /**
+     * Copies every record's start, in record order, into dst. Like the other column puts, this lets a track be
+     * written straight into a buffer without copying its columns first.
+     */
+    public void putStarts(final IntBuffer dst)
+    {
+        dst.put(starts.duplicate());
+    }
+
+    public void putEnds(final IntBuffer dst)
+    {
+        dst.put(ends.duplicate());
+    }
+
+    public void putReads(final DoubleBuffer dst)
+    {
+        dst.put(reads.duplicate());
+    }
+
+    /**
+     * Copies every record's gene dictionary id, or -1, in record order, into dst.
+     */
+    public void putGeneIds(final IntBuffer dst)
+    {
+        dst.put(geneIds.duplicate());
+    }
+
+    public int getContigCount()
+    {
+        return contigNames.length;
+    }
+
+    /**
+     * @return the contig's name, which is null for records that weren't given one
+     */
+    public String getContigName(final int contig)
+    {
+        return contigNames[contig];
+    }
+
+    /**
+     * @param name a contig's name, or null
+     * @return id of the contig, or -1 if no record is on it
+     */
+    public int getContigId(final String name)
+    {
+        for (int c = 0; c < contigNames.length; ++c)
+        {
+            if (null == name ? null == contigNames[c] : name.equals(contigNames[c]))
+            {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return id of the track's only contig, which methods taking positions without a contig work on
+     * @throws IllegalStateException if the track has several contigs, whose positions overlap
+     */
+    public int getOnlyContig()
+    {
+        if (contigNames.length > 1)
+        {
+            throw new IllegalStateException("Positions need a contig on a track with " + contigNames.length
+                    + " contigs");
+        }
+        return 0;
+    }
+
+    /**
+     * @return index of the contig's first record
+     */
+    public int getContigFrom(final int contig)
+    {
+        return contigBounds[contig];
+    }
+
+    /**
+     * @return index just past the contig's last record
+     */
+    public int getContigTo(final int contig)
+    {
+        return contigBounds[contig + 1];
+    }
+
+    /**
+     * @return id of the contig the record is on
+     */
+    public int getContig(final int record)
+    {
+        // The last contig starting at or before record; empty contigs share their start with the next one.
+        int low = 0;
+        int high = contigNames.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (contigBounds[mid] <= record)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    public int getStart(final int record)
+    {
+        return starts.get(record);
+    }
+
+    public int getEnd(final int record)
+    {
+        return ends.get(record);
+    }
+
+    public double getReads(final int record)
+    {
+        return reads.get(record);
+    }
+
+    /**
+     * @param position position within the track's only contig
+     * @return index of the record covering position, or -1 if no record does. Where records overlap, the one read
+     * last is returned.
+     */
+    public int indexOf(final int position)
+    {
+        return indexOf(getOnlyContig(), position);
+    }
+
+    public int indexOf(final int contig, final int position)
+    {
+        return positions()[contig].lookup(position);
+    }
+
+    /**
+     * @return indexes of the records on the only contig starting within [from, to), in order of position
+     */
+    public int[] recordsStartingWithin(final int from, final int to)
+    {
+        return recordsStartingWithin(getOnlyContig(), from, to);
+    }
+
+    public int[] recordsStartingWithin(final int contig, final int from, final int to)
+    {
+        return positions()[contig].startingWithin(from, to);
+    }
+
+    /**
+     * @return total reads of the records on the only contig starting within [from, to)
+     */
+    public double sumReads(final int from, final int to)
+    {
+        return sumReads(getOnlyContig(), from, to);
+    }
+
+    public double sumReads(final int contig, final int from, final int to)
+    {
+        final PrefixSums sums = getPrefixSums();
+        final int offset = contigBounds[contig];
+        final int first = positions()[contig].firstStartingAtOrAfter(from);
+        final int last = Math.max(first, positions()[contig].firstStartingAtOrAfter(to));
+        return sums.reads.get(offset + last) - sums.reads.get(offset + first);
+    }
+
+    /**
+     * @return number of records on the only contig starting within [from, to)
+     */
+    public int countSites(final int from, final int to)
+    {
+        return countSites(getOnlyContig(), from, to);
+    }
+
+    public int countSites(final int contig, final int from, final int to)
+    {
+        return Math.max(0,
+                positions()[contig].firstStartingAtOrAfter(to) - positions()[contig].firstStartingAtOrAfter(from));
+    }
+
+    /**
+     * @return number of records on the only contig starting within [from, to) with any reads
+     */
+    public int countHits(final int from, final int to)
+    {
+        return countHits(getOnlyContig(), from, to);
+    }
+
+    public int countHits(final int contig, final int from, final int to)
+    {
+        final PrefixSums sums = getPrefixSums();
+        final int offset = contigBounds[contig];
+        final int first = positions()[contig].firstStartingAtOrAfter(from);
+        final int last = Math.max(first, positions()[contig].firstStartingAtOrAfter(to));
+        return sums.hits.get(offset + last) - sums.hits.get(offset + first);
+    }
+
+    /**
+     * @return mean reads of the records on the only contig starting within [from, to), or NaN if there are none
+     */
+    public double meanReads(final int from, final int to)
+    {
+        return meanReads(getOnlyContig(), from, to);
+    }
+
+    public double meanReads(final int contig, final int from, final int to)
+    {
+        final int sites = countSites(contig, from, to);
+        return sites == 0 ? Double.NaN : sumReads(contig, from, to) / sites;
+    }
+
+    private PrefixSums getPrefixSums()
+    {
+        PrefixSums sums = prefixSums;
+        if (null == sums)
+        {
+            // Racing threads build identical sums, so whichever is published last is as good as any.
+            sums = new PrefixSums(reads, contigBounds, positions(), memory);
+            prefixSums = sums;
+        }
+        return sums;
+    }
+
+    IntervalIndex getPositions(final int contig)
+    {
+        return positions()[contig];
+    }
+
+    private IntervalIndex[] positions()
+    {
+        IntervalIndex[] built = positions;
+        if (null == built)
+        {
+            // Racing threads build identical indexes, so whichever is published last is as good as any.
+            built = indexContigs(starts, ends, contigBounds, memory);
+            positions = built;
+        }
+        return built;
+    }
+
+    /**
+     * @return id of the record's gene name within this track's dictionary, or -1 if the record has no gene
+     */
+    public int getGeneId(final int record)
+    {
+        return geneIds.get(record);
+    }
+
+    /**
+     * @return the record's gene name, or null if it has none
+     */
+    public String getGeneName(final int record)
+    {
+        final int id = geneIds.get(record);
+        return id < 0 ? null : geneNames[id];
+    }
+
+    /**
+     * @return number of distinct gene names in this track
+     */
+    public int getGeneCount()
+    {
+        return geneNames.length;
+    }
+
+    public String getDictionaryName(final int geneId)
+    {
+        return geneNames[geneId];
+    }
+
+    /**
+     * Translates this track's gene dictionary into gene ids of the given genome, so per-record work can go straight
+     * from a record to a gene without hashing names.
+     * @param genome genome to resolve names against
+     * @return an array indexed by dictionary id holding the genome's gene id, or -1 if the genome lacks that gene
+     */
+    public int[] resolveGenes(final Genome genome)
+    {
+        final int[] resolved = new int[geneNames.length];
+        for (int i = 0; i < geneNames.length; ++i)
+        {
+            resolved[i] = genome.getGeneId(geneNames[i]);
+        }
+        return resolved;
+    }
+
+    /**
+     * @return whether other has the same records as this track, at the same positions and in the same genes, so the
+     * two can be walked together record by record. Read counts aren't compared.
+     */
+    public boolean hasSameSites(final IgvTrack other)
+    {
+        if (other.starts == starts && other.ends == ends && other.geneIds == geneIds)
+        {
+            return true;
+        }
+        if (!other.starts.equals(starts) || !other.ends.equals(ends)
+                || !Arrays.equals(other.contigNames, contigNames) || !Arrays.equals(other.contigBounds, contigBounds))
+        {
+            return false;
+        }
+        // Dictionary ids depend on the order names were first seen, so compare through the names.
+        final Map<String, Integer> otherIds = new HashMap<>();
+        for (int i = 0; i < other.geneNames.length; ++i)
+        {
+            otherIds.put(other.geneNames[i], i);
+        }
+        final int[] translated = new int[geneNames.length];
+        for (int i = 0; i < geneNames.length; ++i)
+        {
+            final Integer id = otherIds.get(geneNames[i]);
+            translated[i] = null == id ? -2 : id;
+        }
+        for (int i = 0; i < geneIds.capacity(); ++i)
+        {
+            final int geneId = geneIds.get(i);
+            final int translatedId = geneId < 0 ? -1 : translated[geneId];
+            if (translatedId != other.geneIds.get(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the read counts, in record order
+     */
+    public double[] copyReads()
+    {
+        final double[] copy = new double[reads.capacity()];
+        reads.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * @param newReads read count for every record, in record order. Not copied.
+     * @return a track with the same records as this one but different read counts. Columns other than reads are
+     * shared with this track.
+     */
+    public IgvTrack withReads(final double[] newReads)
+    {
+        if (newReads.length != reads.capacity())
+        {
+            throw new IllegalArgumentException("Expected " + reads.capacity() + " reads, got " + newReads.length);
+        }
+        return new IgvTrack(starts, ends, DoubleBuffer.wrap(newReads), geneIds, geneNames, contigNames, contigBounds,
+                positions, memory);
+    }
+
+    /**
+     * @return the read counts of the records with reads, indexed by record
+     */
+    public SparseReads sparseReads()
+    {
+        return SparseReads.of(reads);
+    }
+
+    /**
+     * @param newReads read counts indexed by record, with a site for every record
+     * @return a track with the same records as this one but different read counts
+     */
+    public IgvTrack withReads(final SparseReads newReads)
+    {
+        if (newReads.getSiteCount() != reads.capacity())
+        {
+            throw new IllegalArgumentException("Expected " + reads.capacity() + " sites, got "
+                    + newReads.getSiteCount());
+        }
+        return withReads(newReads.toDense(new double[reads.capacity()]));
+    }
+
+    public IgvRecord getRecord(final int record)
+    {
+        return new IgvRecord(contigNames[getContig(record)], starts.get(record), ends.get(record), reads.get(record),
+                getGeneName(record));
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException
+    {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("starts", Columns.toArray(starts));
+        fields.put("ends", Columns.toArray(ends));
+        fields.put("reads", Columns.toArray(reads));
+        fields.put("geneIds", Columns.toArray(geneIds));
+        fields.put("geneNames", geneNames);
+        fields.put("contigNames", contigNames);
+        fields.put("contigBounds", contigBounds);
+        fields.put("positions", positions());
+        out.writeFields();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream.GetField fields = in.readFields();
+        starts = IntBuffer.wrap((int[]) fields.get("starts", null));
+        ends = IntBuffer.wrap((int[]) fields.get("ends", null));
+        reads = DoubleBuffer.wrap((double[]) fields.get("reads", null));
+        geneIds = IntBuffer.wrap((int[]) fields.get("geneIds", null));
+        geneNames = (String[]) fields.get("geneNames", null);
+        contigNames = (String[]) fields.get("contigNames", null);
+        contigBounds = (int[]) fields.get("contigBounds", null);
+        positions = (IntervalIndex[]) fields.get("positions", null);
+    }
+
+    /**
+     * Running totals of reads and hits over the records in order of contig and then position, so the totals for any
+     * range of positions on a contig are a difference of two entries. Sums of fractional reads, as after
+     * normalization, can differ from summing the range directly in the last few bits. They're kept in the same
+     * memory as the track's columns.
+     */
+    private static final class PrefixSums
+    {
+        // reads[i] is the total of the first i records in that order; hits likewise counts those with reads.
+        private final DoubleBuffer reads;
+        private final IntBuffer hits;
+
+        private PrefixSums(final DoubleBuffer trackReads, final int[] contigBounds, final IntervalIndex[] positions,
+                           final OffHeapMemory memory)
+        {
+            reads = Columns.doubles(memory, trackReads.capacity() + 1);
+            hits = Columns.ints(memory, trackReads.capacity() + 1);
+            double readTotal = 0;
+            int hitTotal = 0;
+            for (int c = 0; c < positions.length; ++c)
+            {
+                for (int i = contigBounds[c]; i < contigBounds[c + 1]; ++i)
+                {
+                    final double read = trackReads.get(positions[c].idAt(i - contigBounds[c]));
+                    readTotal += read;
+                    hitTotal += read > 0 ? 1 : 0;
+                    reads.put(i + 1, readTotal);
+                    hits.put(i + 1, hitTotal);
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulates records into growable columns, assigning dictionary ids to gene names and contigs as they're first
+     * seen. Records may arrive with their contigs interleaved; they're grouped by contig when the track is built.
+     */
+    public static final class Builder
+    {
+        private int[] starts = new int[1024];
+        private int[] ends = new int[1024];
+        private double[] reads = new double[1024];
+        private int[] geneIds = new int[1024];
+        private int[] contigIds = new int[1024];
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private String[] geneNames = new String[16];
+        private final Map<String, Integer> contigDictionary = new HashMap<>();
+        private String[] contigNames = new String[4];
+        // Whether each contig has had a run of records yet, to notice contigs whose records aren't together.
+        private boolean[] contigStarted = new boolean[4];
+        private int lastContig = -1;
+        private boolean contigsGrouped = true;
+        private int size;
+        private int siteHits;
+        private int totalSiteReads;
+        private QuantileSketch sketch;
+
+        /**
+         * Has every read added to this builder counted in sketch as well, so percentiles can be estimated without
+         * another pass over the reads.
+         */
+        public Builder withSketch(final QuantileSketch sketch)
+        {
+            this.sketch = sketch;
+            return this;
+        }
+
+        /**
+         * @return sketch of the reads added, or null if this builder wasn't given one
+         */
+        public QuantileSketch getSketch()
+        {
+            return sketch;
+        }
+
+        /**
+         * @return an empty builder that sketches reads the same way as this one
+         */
+        public Builder emptyCopy()
+        {
+            return new Builder().withSketch(null == sketch ? null : sketch.emptyCopy());
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * @return number of records added, which is the number of lines read from an IGV file
+         */
+        public int getLinesRead()
+        {
+            return size;
+        }
+
+        /**
+         * @return number of records added with a positive number of reads
+         */
+        public int getSiteHits()
+        {
+            return siteHits;
+        }
+
+        public int getTotalSiteReads()
+        {
+            return totalSiteReads;
+        }
+
+        /**
+         * @param geneName gene name to encode. May be null.
+         * @return the dictionary id of geneName, or -1 if it's null
+         */
+        public int encodeGene(final String geneName)
+        {
+            if (null == geneName)
+            {
+                return -1;
+            }
+            Integer id = dictionary.get(geneName);
+            if (null == id)
+            {
+                id = dictionary.size();
+                if (id == geneNames.length)
+                {
+                    geneNames = Arrays.copyOf(geneNames, id * 2);
+                }
+                geneNames[id] = geneName;
+                dictionary.put(geneName, id);
+            }
+            return id;
+        }
+
+        /**
+         * @param contig contig name to encode. May be null, for records without one.
+         * @return the dictionary id of contig
+         */
+        public int encodeContig(final String contig)
+        {
+            Integer id = contigDictionary.get(contig);
+            if (null == id)
+            {
+                id = contigDictionary.size();
+                if (id == contigNames.length)
+                {
+                    contigNames = Arrays.copyOf(contigNames, id * 2);
+                    contigStarted = Arrays.copyOf(contigStarted, id * 2);
+                }
+                contigNames[id] = contig;
+                contigDictionary.put(contig, id);
+            }
+            return id;
+        }
+
+        public Builder add(final int start, final int end, final double read, final String geneName)
+        {
+            return add(null, start, end, read, geneName);
+        }
+
+        public Builder add(final String contig, final int start, final int end, final double read,
+                           final String geneName)
+        {
+            return addEncoded(encodeContig(contig), start, end, read, encodeGene(geneName));
+        }
+
+        /**
+         * Adds a record without a contig.
+         * @param geneId id previously returned by {@link #encodeGene(String)}, or -1
+         */
+        public Builder addEncoded(final int start, final int end, final double read, final int geneId)
+        {
+            return addEncoded(encodeContig(null), start, end, read, geneId);
+        }
+
+        /**
+         * @param contigId id previously returned by {@link #encodeContig(String)}
+         * @param geneId id previously returned by {@link #encodeGene(String)}, or -1
+         */
+        public Builder addEncoded(final int contigId, final int start, final int end, final double read,
+                                  final int geneId)
+        {
+            ensureCapacity(size + 1);
+            starts[size] = start;
+            ends[size] = end;
+            reads[size] = read;
+            geneIds[size] = geneId;
+            contigIds[size] = contigId;
+            continueContig(contigId);
+            ++size;
+            if (null != sketch)
+            {
+                sketch.add(read);
+            }
+            if (read > 0)
+            {
+                ++siteHits;
+                totalSiteReads += read;
+            }
+            return this;
+        }
+
+        private void continueContig(final int contigId)
+        {
+            if (contigId != lastContig)
+            {
+                if (contigStarted[contigId])
+                {
+                    contigsGrouped = false;
+                }
+                contigStarted[contigId] = true;
+                lastContig = contigId;
+            }
+        }
+
+        private void ensureCapacity(final int capacity)
+        {
+            if (capacity > starts.length)
+            {
+                final int newCapacity = Math.max(capacity, starts.length * 2);
+                starts = Arrays.copyOf(starts, newCapacity);
+                ends = Arrays.copyOf(ends, newCapacity);
+                reads = Arrays.copyOf(reads, newCapacity);
+                geneIds = Arrays.copyOf(geneIds, newCapacity);
+                contigIds = Arrays.copyOf(contigIds, newCapacity);
+            }
+        }
+
+        /**
+         * Adds every record of other after the records already in this builder, re-encoding its gene names and
+         * contigs into this builder's dictionaries, and adds its counters to ours.
+         */
+        public Builder append(final Builder other)
+        {
+            final int[] remapped = new int[other.dictionary.size()];
+            for (int i = 0; i < remapped.length; ++i)
+            {
+                remapped[i] = encodeGene(other.geneNames[i]);
+            }
+            final int[] remappedContigs = new int[other.contigDictionary.size()];
+            for (int i = 0; i < remappedContigs.length; ++i)
+            {
+                remappedContigs[i] = encodeContig(other.contigNames[i]);
+            }
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.starts, 0, starts, size, other.size);
+            System.arraycopy(other.ends, 0, ends, size, other.size);
+            System.arraycopy(other.reads, 0, reads, size, other.size);
+            for (int i = 0; i < other.size; ++i)
+            {
+                final int geneId = other.geneIds[i];
+                geneIds[size + i] = geneId < 0 ? -1 : remapped[geneId];
+                final int contigId = remappedContigs[other.contigIds[i]];
+                contigIds[size + i] = contigId;
+                continueContig(contigId);
+            }
+            size += other.size;
+            if (null != sketch && null != other.sketch)
+            {
+                sketch.merge(other.sketch);
+            }
+            siteHits += other.siteHits;
+            // Added as a double, like each record's reads, so the total saturates rather than wrapping.
+            totalSiteReads += (double) other.totalSiteReads;
+            return this;
+        }
+
+        public Builder add(final IgvRecord record)
+        {
+            return add(record.getContig(), record.getStart(), record.getEnd(), record.getReads(),
+                    record.getGeneName());
+        }
+
+        public IgvTrack build()
+        {
+            return build(null);
+        }
+
+        /**
+         * @param memory memory to put the track's columns in, or null for the heap
+         */
+        public IgvTrack build(final OffHeapMemory memory)
+        {
+            if (contigDictionary.isEmpty())
+            {
+                encodeContig(null);
+            }
+            final int contigCount = contigDictionary.size();
+            // Contig ids follow first appearance, so counting records per contig gives each contig's range.
+            final int[] contigBounds = new int[contigCount + 1];
+            for (int i = 0; i < size; ++i)
+            {
+                ++contigBounds[contigIds[i] + 1];
+            }
+            for (int c = 0; c < contigCount; ++c)
+            {
+                contigBounds[c + 1] += contigBounds[c];
+            }
+            final IntBuffer trimmedStarts = Columns.ints(memory, size);
+            final IntBuffer trimmedEnds = Columns.ints(memory, size);
+            final DoubleBuffer trimmedReads = Columns.doubles(memory, size);
+            final IntBuffer trimmedGeneIds = Columns.ints(memory, size);
+            if (contigsGrouped)
+            {
+                trimmedStarts.duplicate().put(starts, 0, size);
+                trimmedEnds.duplicate().put(ends, 0, size);
+                trimmedReads.duplicate().put(reads, 0, size);
+                trimmedGeneIds.duplicate().put(geneIds, 0, size);
+            }
+            else
+            {
+                // Gather each contig's records together, keeping their order within the contig.
+                final int[] next = Arrays.copyOf(contigBounds, contigCount);
+                for (int i = 0; i < size; ++i)
+                {
+                    final int slot = next[contigIds[i]]++;
+                    trimmedStarts.put(slot, starts[i]);
+                    trimmedEnds.put(slot, ends[i]);
+                    trimmedReads.put(slot, reads[i]);
+                    trimmedGeneIds.put(slot, geneIds[i]);
+                }
+            }
+            return new IgvTrack(trimmedStarts, trimmedEnds, trimmedReads, trimmedGeneIds,
+                    Arrays.copyOf(geneNames, dictionary.size()), Arrays.copyOf(contigNames, contigCount),
+                    contigBounds, indexContigs(trimmedStarts, trimmedEnds, contigBounds, memory), memory);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package org.machinery.futility.analysis.structs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Maps positions to the half-open [start, end) intervals that cover them. Intervals are kept sorted by start in
+ * primitive columns, on or off the heap, alongside a running maximum of the end positions, so a lookup is a binary
+ * search followed by a short walk backwards over any intervals that overlap the position. Each interval is
+ * identified by the order in which it was supplied; when several intervals cover a position, the one supplied last
+ * wins, just like the old per-base HashMap that was overwritten as records were loaded.
+ */
+public final class IntervalIndex implements Serializable
+{
+    private static final long serialVersionUID = 3394158003915286540L;
+    // Columns are saved as arrays, as they were before they could live off the heap.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("starts", int[].class),
+            new ObjectStreamField("ends", int[].class),
+            new ObjectStreamField("ids", int[].class),
+            new ObjectStreamField("firstId", int.class),
+            new ObjectStreamField("maxEnds", int[].class)
+    };
+    // Only assigned by the constructor and readObject.
+    private IntBuffer starts;
+    private IntBuffer ends;
+    // Original position of each interval. Null when the intervals were supplied already sorted.
+    private IntBuffer ids;
+    // Added to sorted positions to give ids when ids is null, for indexes over part of the supplied arrays.
+    private int firstId;
+    // maxEnds[i] is the largest end of any interval in [0, i]. Shares ends when ends never decrease.
+    private IntBuffer maxEnds;
+
+    private IntervalIndex(final IntBuffer starts, final IntBuffer ends, final IntBuffer ids, final int firstId,
+                          final IntBuffer maxEnds)
+    {
+        this.starts = starts;
+        this.ends = ends;
+        this.ids = ids;
+        this.firstId = firstId;
+        this.maxEnds = maxEnds;
+    }
+
+    /**
+     * Builds an index over the given intervals. The arrays are shared, not copied, if they're already sorted by
+     * start, so callers must not modify them afterwards.
+     * @param starts inclusive start of each interval
+     * @param ends exclusive end of each interval
+     * @param count number of intervals to index, taken from the front of the arrays
+     * @return an index whose ids are positions within the supplied arrays
+     */
+    public static IntervalIndex build(final int[] starts, final int[] ends, final int count)
+    {
+        return build(starts, ends, 0, count);
+    }
+
+    /**
+     * Builds an index over the intervals in [from, to) of the given arrays, such as one contig's records. Ids are
+     * still positions within the whole arrays. The range of the arrays is shared, not copied, if it's already sorted
+     * by start.
+     */
+    public static IntervalIndex build(final int[] starts, final int[] ends, final int from, final int to)
+    {
+        return build(IntBuffer.wrap(starts), IntBuffer.wrap(ends), from, to, null);
+    }
+
+    /**
+     * Builds an index over columns, as {@link #build(int[], int[], int, int)} does over arrays.
+     * @param memory memory to allocate any columns of the index from, or null for the heap
+     */
+    static IntervalIndex build(final IntBuffer starts, final IntBuffer ends, final int from, final int to,
+                               final OffHeapMemory memory)
+    {
+        final int count = to - from;
+        boolean sorted = true;
+        for (int i = from + 1; i < to && sorted; ++i)
+        {
+            sorted = starts.get(i - 1) <= starts.get(i);
+        }
+        final IntBuffer sortedStarts, sortedEnds, ids;
+        if (sorted)
+        {
+            final boolean whole = from == 0 && starts.capacity() == to && ends.capacity() == to;
+            sortedStarts = whole ? starts : Columns.slice(starts, from, to);
+            sortedEnds = whole ? ends : Columns.slice(ends, from, to);
+            ids = null;
+        }
+        else
+        {
+            // Pack start and id together so a single primitive sort orders by start, then by load order.
+            final long[] packed = new long[count];
+            for (int i = 0; i < count; ++i)
+            {
+                packed[i] = ((long) starts.get(from + i) << 32) | (from + i);
+            }
+            Arrays.sort(packed);
+            sortedStarts = Columns.ints(memory, count);
+            sortedEnds = Columns.ints(memory, count);
+            ids = Columns.ints(memory, count);
+            for (int i = 0; i < count; ++i)
+            {
+                final int id = (int) packed[i];
+                sortedStarts.put(i, starts.get(id));
+                sortedEnds.put(i, ends.get(id));
+                ids.put(i, id);
+            }
+        }
+        return new IntervalIndex(sortedStarts, sortedEnds, ids, null == ids ? from : 0,
+                runningMax(sortedEnds, memory));
+    }
+
+    private static IntBuffer runningMax(final IntBuffer ends, final OffHeapMemory memory)
+    {
+        final int count = ends.capacity();
+        IntBuffer maxEnds = ends;
+        for (int i = 1; i < count; ++i)
+        {
+            if (ends.get(i) < ends.get(i - 1))
+            {
+                maxEnds = Columns.ints(memory, count);
+                break;
+            }
+        }
+        if (maxEnds != ends)
+        {
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < count; ++i)
+            {
+                max = Math.max(max, ends.get(i));
+                maxEnds.put(i, max);
+            }
+        }
+        return maxEnds;
+    }
+
+    public int size()
+    {
+        return starts.capacity();
+    }
+
+    /**
+     * @param sortedIndex position of an interval in order of start
+     * @return the id of that interval
+     */
+    int idAt(final int sortedIndex)
+    {
+        return null == ids ? firstId + sortedIndex : ids.get(sortedIndex);
+    }
+
+    /**
+     * @return index of the last interval whose start is less than or equal to position, or -1 if there is none
+     */
+    private int lastStartingAtOrBefore(final int position)
+    {
+        int low = 0;
+        int high = starts.capacity();
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (starts.get(mid) <= position)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * @return index of the first interval whose start is greater than or equal to position, or the number of
+     * intervals if there is none
+     */
+    int firstStartingAtOrAfter(final int position)
+    {
+        int low = 0;
+        int high = starts.capacity();
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (starts.get(mid) < position)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param position position to look up
+     * @return id of the last supplied interval covering position, or -1 if no interval covers it
+     */
+    public int lookup(final int position)
+    {
+        int best = -1;
+        for (int i = lastStartingAtOrBefore(position); i >= 0 && maxEnds.get(i) > position; --i)
+        {
+            if (ends.get(i) > position)
+            {
+                best = Math.max(best, idAt(i));
+                if (null == ids)
+                {
+                    // Sorted input means ids only decrease from here on.
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param position position to look up
+     * @return ids of every interval covering position, in the order they were supplied
+     */
+    public int[] lookupAll(final int position)
+    {
+        // Every interval covering position is within the walk, so a buffer the walk's length holds them all.
+        final int last = lastStartingAtOrBefore(position);
+        int first = last;
+        while (first >= 0 && maxEnds.get(first) > position)
+        {
+            --first;
+        }
+        final int[] found = new int[last - first];
+        int count = 0;
+        for (int i = last; i > first; --i)
+        {
+            if (ends.get(i) > position)
+            {
+                found[count++] = idAt(i);
+            }
+        }
+        final int[] ids = count == found.length ? found : Arrays.copyOf(found, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * @param from inclusive lower bound on starts
+     * @param to exclusive upper bound on starts
+     * @return ids of every interval starting within [from, to), ordered by start and then by the order they were
+     * supplied
+     */
+    public int[] startingWithin(final int from, final int to)
+    {
+        final int first = firstStartingAtOrAfter(from);
+        final int last = firstStartingAtOrAfter(to);
+        final int[] found = new int[Math.max(0, last - first)];
+        for (int i = 0; i < found.length; ++i)
+        {
+            found[i] = idAt(first + i);
+        }
+        return found;
+    }
+
+    /**
+     * @param position position to start from
+     * @return the smallest covered position that is greater than or equal to position, or {@link Long#MAX_VALUE}
+     * if there is none. Positions may be negative, so no int could mark the end.
+     */
+    public long nextCovered(final int position)
+    {
+        int candidate = position;
+        while (lookup(candidate) < 0)
+        {
+            final int next = lastStartingAtOrBefore(candidate) + 1;
+            if (next >= starts.capacity())
+            {
+                return Long.MAX_VALUE;
+            }
+            candidate = starts.get(next);
+        }
+        return candidate;
+    }
+
+    /**
+     * @return the number of distinct positions covered by at least one interval
+     */
+    public long coveredPositions()
+    {
+        long covered = 0;
+        long runStart = 0;
+        long runEnd = Long.MIN_VALUE;
+        for (int i = 0; i < starts.capacity(); ++i)
+        {
+            if (starts.get(i) >= runEnd)
+            {
+                covered += Math.max(0, runEnd - runStart);
+                runStart = starts.get(i);
+                runEnd = ends.get(i);
+            }
+            else
+            {
+                runEnd = Math.max(runEnd, ends.get(i));
+            }
+        }
+        covered += Math.max(0, runEnd - runStart);
+        return covered;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException
+    {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        final int[] endsArray = Columns.toArray(ends);
+        fields.put("starts", Columns.toArray(starts));
+        fields.put("ends", endsArray);
+        fields.put("ids", null == ids ? null : Columns.toArray(ids));
+        fields.put("firstId", firstId);
+        fields.put("maxEnds", maxEnds == ends ? endsArray : Columns.toArray(maxEnds));
+        out.writeFields();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream.GetField fields = in.readFields();
+        final int[] endsArray = (int[]) fields.get("ends", null);
+        final int[] maxEndsArray = (int[]) fields.get("maxEnds", null);
+        final int[] idsArray = (int[]) fields.get("ids", null);
+        starts = IntBuffer.wrap((int[]) fields.get("starts", null));
+        ends = IntBuffer.wrap(endsArray);
+        ids = null == idsArray ? null : IntBuffer.wrap(idsArray);
+        firstId = fields.get("firstId", 0);
+        maxEnds = maxEndsArray == endsArray ? ends : IntBuffer.wrap(maxEndsArray);
+    }
+}
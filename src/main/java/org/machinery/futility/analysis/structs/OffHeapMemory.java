@@ -0,0 +1,128 @@
+package org.machinery.futility.analysis.structs;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Direct memory for track columns, outside the Java heap, so data sets kept resident don't fill the old generation
+ * or lengthen full collections. Tracks copied into it read through the same accessors as tracks on the heap.
+ *
+ * Closing frees everything allocated at once where the JVM allows it (Java 9 and later), rather than whenever the
+ * collector gets round to the buffers. Anything allocated from this memory, such as tracks copied into it and
+ * measurements holding them, must not be used once it's closed: reading freed memory can crash the JVM. On older
+ * JVMs closing only stops further allocation, and the memory is freed as the buffers are collected.
+ */
+public final class OffHeapMemory implements Closeable
+{
+    // sun.misc.Unsafe and its invokeCleaner method, or null where they aren't available.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static
+    {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try
+        {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            unsafe = theUnsafe.get(null);
+        }
+        catch (final ReflectiveOperationException | RuntimeException e)
+        {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private long allocatedBytes;
+    private boolean closed;
+
+    /**
+     * @return a zeroed column of count ints
+     */
+    public IntBuffer allocateInts(final int count)
+    {
+        return allocate(4L * count).asIntBuffer();
+    }
+
+    /**
+     * @return a zeroed column of count doubles
+     */
+    public DoubleBuffer allocateDoubles(final int count)
+    {
+        return allocate(8L * count).asDoubleBuffer();
+    }
+
+    private synchronized ByteBuffer allocate(final long bytes)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Off-heap memory has been closed");
+        }
+        if (bytes > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Column too large for a direct buffer: " + bytes + " bytes");
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+        buffers.add(buffer);
+        allocatedBytes += bytes;
+        return buffer;
+    }
+
+    /**
+     * @return bytes allocated and not yet freed
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Frees every column allocated from this memory. Closing again does nothing.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        if (null != INVOKE_CLEANER)
+        {
+            for (final ByteBuffer buffer : buffers)
+            {
+                try
+                {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                }
+                catch (final ReflectiveOperationException e)
+                {
+                    // Left to the collector, as on JVMs without invokeCleaner.
+                    break;
+                }
+            }
+        }
+        buffers.clear();
+        allocatedBytes = 0;
+    }
+}
@@ -0,0 +1,102 @@
+package org.machinery.futility.analysis.structs;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only Map view of an {@link IntervalIndex}, keyed by every covered position. This exists so callers written
+ * against the old per-base HashMap indexes keep working; lookups go through the interval index, and nothing is
+ * stored per position.
+ * @param <V> the type each interval id is translated to
+ */
+abstract class PositionMap<V> extends AbstractMap<Integer, V>
+{
+    private final IntervalIndex intervals;
+    private int size = -1;
+
+    PositionMap(final IntervalIndex intervals)
+    {
+        this.intervals = intervals;
+    }
+
+    protected abstract V valueFor(int id);
+
+    @Override
+    public V get(final Object key)
+    {
+        if (!(key instanceof Integer))
+        {
+            return null;
+        }
+        final int id = intervals.lookup((Integer) key);
+        return id < 0 ? null : valueFor(id);
+    }
+
+    @Override
+    public boolean containsKey(final Object key)
+    {
+        return key instanceof Integer && intervals.lookup((Integer) key) >= 0;
+    }
+
+    @Override
+    public int size()
+    {
+        if (size < 0)
+        {
+            size = (int) Math.min(Integer.MAX_VALUE, intervals.coveredPositions());
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet()
+    {
+        return new AbstractSet<Entry<Integer, V>>()
+        {
+            @Override
+            public Iterator<Entry<Integer, V>> iterator()
+            {
+                return new Iterator<Entry<Integer, V>>()
+                {
+                    // Past Integer.MAX_VALUE once there are no more positions.
+                    private long next = intervals.size() == 0 ? Long.MAX_VALUE
+                            : intervals.nextCovered(Integer.MIN_VALUE);
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return next <= Integer.MAX_VALUE;
+                    }
+
+                    @Override
+                    public Entry<Integer, V> next()
+                    {
+                        if (!hasNext())
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        final int position = (int) next;
+                        final V value = valueFor(intervals.lookup(position));
+                        next = position == Integer.MAX_VALUE ? Long.MAX_VALUE : intervals.nextCovered(position + 1);
+                        return new SimpleImmutableEntry<>(position, value);
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return PositionMap.this.size();
+            }
+        };
+    }
+}
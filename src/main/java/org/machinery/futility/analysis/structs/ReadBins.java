@@ -0,0 +1,96 @@
+package org.machinery.futility.analysis.structs;
+
+/**
+ * Reads aggregated into consecutive, equally wide bins of positions, such as one per pixel of a track view. Each
+ * record counts toward the bin holding its start. Bins without records have a count of zero, a sum of zero, and a
+ * minimum and maximum of NaN.
+ */
+public final class ReadBins
+{
+    private final int firstStart;
+    private final long width;
+    private final double[] mins;
+    private final double[] maxes;
+    private final double[] sums;
+    private final int[] counts;
+
+    ReadBins(final int firstStart, final long width, final double[] mins, final double[] maxes, final double[] sums,
+             final int[] counts)
+    {
+        this.firstStart = firstStart;
+        this.width = width;
+        this.mins = mins;
+        this.maxes = maxes;
+        this.sums = sums;
+        this.counts = counts;
+    }
+
+    @SuppressWarnings("unused")
+    public int size()
+    {
+        return counts.length;
+    }
+
+    /**
+     * @return number of positions covered by each bin
+     */
+    @SuppressWarnings("unused")
+    public long getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return inclusive first position of the bin
+     */
+    @SuppressWarnings("unused")
+    public int getStart(final int bin)
+    {
+        return (int) Math.max(Integer.MIN_VALUE, firstStart + bin * width);
+    }
+
+    /**
+     * @return exclusive last position of the bin
+     */
+    @SuppressWarnings("unused")
+    public int getEnd(final int bin)
+    {
+        return (int) Math.min(Integer.MAX_VALUE, firstStart + (bin + 1) * width);
+    }
+
+    @SuppressWarnings("unused")
+    public double getMin(final int bin)
+    {
+        return mins[bin];
+    }
+
+    @SuppressWarnings("unused")
+    public double getMax(final int bin)
+    {
+        return maxes[bin];
+    }
+
+    @SuppressWarnings("unused")
+    public double getSum(final int bin)
+    {
+        return sums[bin];
+    }
+
+    /**
+     * @return number of records in the bin
+     */
+    @SuppressWarnings("unused")
+    public int getCount(final int bin)
+    {
+        return counts[bin];
+    }
+
+    /**
+     * @return mean reads of the records in the bin, or NaN if it has none
+     */
+    @SuppressWarnings("unused")
+    public double getMean(final int bin)
+    {
+        return counts[bin] == 0 ? Double.NaN : sums[bin] / counts[bin];
+    }
+}
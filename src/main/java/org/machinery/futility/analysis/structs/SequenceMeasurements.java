@@ -1,42 +1,268 @@
 package org.machinery.futility.analysis.structs;
 
+import org.machinery.futility.analysis.stats.Percentiles;
+import org.machinery.futility.analysis.stats.QuantileSketch;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 /**
  * Represents an analyzed IGV file. We retain the original IGV data , which we need for controls when analyzing
- * experiments. We also have an index, which is used to quickly look up mappings relative to a position in the entire
- * genome.
+ * experiments. The track also carries a position index, which is used to quickly look up mappings relative to a
+ * position in the entire genome.
  */
 public final class SequenceMeasurements implements Serializable
 {
     private static final long serialVersionUID = -6934551457216078346L;
-    private final List<IgvRecord> rawData;
-    private final Map<Integer, Integer> index;
-    private final Map<String, Integer> stats;
+    // Only assigned by the constructor and readObject.
+    private IgvTrack track;
+    private Map<String, Integer> stats;
+    // Null unless reads were sketched while they were ingested.
+    private QuantileSketch sketch;
+    // Built on first use when it wasn't supplied.
+    private ZoomPyramid pyramid;
+    private transient Map<Integer, Integer> index;
 
-    public SequenceMeasurements(final List<IgvRecord> rawData, final Map<Integer, Integer> index, final Map<String, Integer> stats)
+    public SequenceMeasurements(final IgvTrack track, final Map<String, Integer> stats)
+    {
+        this(track, stats, null);
+    }
+
+    public SequenceMeasurements(final IgvTrack track, final Map<String, Integer> stats, final QuantileSketch sketch)
+    {
+        this(track, stats, sketch, null);
+    }
+
+    /**
+     * @param sketch sketch of the track's reads, or null
+     * @param pyramid zoom pyramid built from track, or null to build one when it's first needed
+     */
+    public SequenceMeasurements(final IgvTrack track, final Map<String, Integer> stats, final QuantileSketch sketch,
+                                final ZoomPyramid pyramid)
     {
-        this.rawData = rawData;
-        this.index = index;
+        this.track = track;
         this.stats = stats;
+        this.sketch = sketch;
+        this.pyramid = pyramid;
+    }
+
+    /**
+     * @deprecated the index is derived from the records now, so the supplied index is ignored.
+     */
+    @Deprecated
+    public SequenceMeasurements(final List<IgvRecord> rawData, final Map<Integer, Integer> index, final Map<String, Integer> stats)
+    {
+        this(toTrack(rawData), stats);
+    }
+
+    private static IgvTrack toTrack(final List<IgvRecord> rawData)
+    {
+        final IgvTrack.Builder builder = new IgvTrack.Builder();
+        for (final IgvRecord record : rawData)
+        {
+            builder.add(record);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return measurements with the same stats whose track has been copied into memory, off the heap. They can't be
+     * used once memory is closed.
+     */
+    @SuppressWarnings("unused")
+    public synchronized SequenceMeasurements copyTo(final OffHeapMemory memory)
+    {
+        return new SequenceMeasurements(track.copyTo(memory), stats, sketch, pyramid);
+    }
+
+    @SuppressWarnings("unused")
+    public IgvTrack getTrack()
+    {
+        return track;
     }
 
+    /**
+     * List view of the track, for callers that predate {@link #getTrack()}. Records are created as they're
+     * requested, so prefer the track for anything that walks every record.
+     */
     @SuppressWarnings("unused")
     public List<IgvRecord> getRawData()
     {
-        return rawData;
+        return new RecordList(track, null);
+    }
+
+    /**
+     * @param position position within the genome
+     * @return index of the record covering position, or -1 if there is none
+     * @throws IllegalStateException if the track has several contigs; use {@link #recordAt(String, int)}
+     */
+    @SuppressWarnings("unused")
+    public int recordAt(final int position)
+    {
+        return track.indexOf(position);
+    }
+
+    /**
+     * @param contig the contig position is on
+     * @param position position within the contig
+     * @return index of the record covering position, or -1 if there is none
+     */
+    @SuppressWarnings("unused")
+    public int recordAt(final String contig, final int position)
+    {
+        final int contigId = track.getContigId(contig);
+        return contigId < 0 ? -1 : track.indexOf(contigId, position);
     }
 
+    /**
+     * @return records starting within [start, end), in order of position. Records are created as they're requested.
+     * @throws IllegalStateException if the track has several contigs; use {@link #recordsIn(String, int, int)}
+     */
+    @SuppressWarnings("unused")
+    public List<IgvRecord> recordsIn(final int start, final int end)
+    {
+        return new RecordList(track, track.recordsStartingWithin(start, end));
+    }
+
+    /**
+     * @return records on contig starting within [start, end), in order of position
+     */
+    @SuppressWarnings("unused")
+    public List<IgvRecord> recordsIn(final String contig, final int start, final int end)
+    {
+        final int contigId = track.getContigId(contig);
+        return new RecordList(track, contigId < 0 ? new int[0] : track.recordsStartingWithin(contigId, start, end));
+    }
+
+    /**
+     * Summarizes the reads of records around [start, end) in about binCount bins, for drawing a view of that range.
+     * See {@link ZoomPyramid#bins} for how bins line up with the range.
+     * @throws IllegalStateException if the track has several contigs; use {@link #binsIn(String, int, int, int)}
+     */
+    @SuppressWarnings("unused")
+    public ReadBins binsIn(final int start, final int end, final int binCount)
+    {
+        return getPyramid().bins(track, start, end, binCount);
+    }
+
+    /**
+     * Summarizes the reads of records on contig around [start, end), as {@link #binsIn(int, int, int)} does.
+     */
+    @SuppressWarnings("unused")
+    public ReadBins binsIn(final String contig, final int start, final int end, final int binCount)
+    {
+        final int contigId = track.getContigId(contig);
+        if (contigId < 0)
+        {
+            throw new IllegalArgumentException("No records on contig " + contig);
+        }
+        return getPyramid().bins(track, contigId, start, end, binCount);
+    }
+
+    private synchronized ZoomPyramid getPyramid()
+    {
+        if (null == pyramid)
+        {
+            pyramid = ZoomPyramid.build(track);
+        }
+        return pyramid;
+    }
+
+    /**
+     * Map view of the position index, from position to the index of the record covering it. Kept for callers that
+     * predate {@link #recordAt(int)}; nothing is stored per position.
+     * @throws IllegalStateException if the track has several contigs
+     */
     @SuppressWarnings("unused")
     public Map<Integer, Integer> getIndex() {
+        if (null == index)
+        {
+            index = new PositionMap<Integer>(track.getPositions(track.getOnlyContig()))
+            {
+                @Override
+                protected Integer valueFor(final int id)
+                {
+                    return id;
+                }
+            };
+        }
         return index;
     }
 
+    /**
+     * Finds the read counts at several percentiles, e.g. for coloring thresholds. If the reads were sketched during
+     * ingestion the values are estimates from the sketch; otherwise they're exact.
+     * @param percentiles percentiles in [0, 1]
+     * @return the read count at each percentile, in the order the percentiles were given
+     */
+    @SuppressWarnings("unused")
+    public double[] readsAtPercentiles(final double... percentiles)
+    {
+        if (null != sketch)
+        {
+            return sketch.atPercentiles(percentiles);
+        }
+        return Percentiles.atPercentiles(track.copyReads(), percentiles);
+    }
+
     @SuppressWarnings("unused")
     public Map<String, Integer> getStats()
     {
         return stats;
     }
+
+    /**
+     * Reads measurements written by this class or by its versions that kept the records in a list, whose tracks are
+     * rebuilt from the records.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream.GetField fields = in.readFields();
+        if (null == fields.getObjectStreamClass().getField("rawData"))
+        {
+            track = (IgvTrack) fields.get("track", null);
+        }
+        else
+        {
+            track = toTrack((List<IgvRecord>) fields.get("rawData", null));
+        }
+        stats = (Map<String, Integer>) fields.get("stats", null);
+        sketch = (QuantileSketch) fields.get("sketch", null);
+        pyramid = (ZoomPyramid) fields.get("pyramid", null);
+    }
+
+    private static final class RecordList extends AbstractList<IgvRecord> implements RandomAccess
+    {
+        private final IgvTrack track;
+        // Indexes of the records in the list, or null for all of them.
+        private final int[] records;
+
+        private RecordList(final IgvTrack track, final int[] records)
+        {
+            this.track = track;
+            this.records = records;
+        }
+
+        @Override
+        public IgvRecord get(final int index)
+        {
+            if (null == records)
+            {
+                return track.getRecord(index);
+            }
+            return track.getRecord(records[index]);
+        }
+
+        @Override
+        public int size()
+        {
+            return null == records ? track.size() : records.length;
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package org.machinery.futility.analysis.structs;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Read counts of a run of sites, keeping only the sites with reads. Most TA sites of a typical data set have none,
+ * so this holds the hits' site indexes and reads plus the number of sites, and every other site implicitly has zero
+ * reads.
+ */
+public final class SparseReads
+{
+    private final int siteCount;
+    // Indexes of the sites with reads, ascending, and their reads.
+    private final int[] sites;
+    private final double[] reads;
+
+    private SparseReads(final int siteCount, final int[] sites, final double[] reads)
+    {
+        this.siteCount = siteCount;
+        this.sites = sites;
+        this.reads = reads;
+    }
+
+    /**
+     * @param reads read count of every site. Not kept.
+     */
+    public static SparseReads of(final double[] reads)
+    {
+        return of(DoubleBuffer.wrap(reads));
+    }
+
+    static SparseReads of(final DoubleBuffer reads)
+    {
+        final int siteCount = reads.capacity();
+        int hitCount = 0;
+        for (int i = 0; i < siteCount; ++i)
+        {
+            if (reads.get(i) != 0)
+            {
+                ++hitCount;
+            }
+        }
+        final int[] sites = new int[hitCount];
+        final double[] hitReads = new double[hitCount];
+        int hit = 0;
+        for (int i = 0; i < siteCount; ++i)
+        {
+            final double read = reads.get(i);
+            if (read != 0)
+            {
+                sites[hit] = i;
+                hitReads[hit] = read;
+                ++hit;
+            }
+        }
+        return new SparseReads(siteCount, sites, hitReads);
+    }
+
+    /**
+     * @return number of sites, including those without reads
+     */
+    @SuppressWarnings("unused")
+    public int getSiteCount()
+    {
+        return siteCount;
+    }
+
+    /**
+     * @return number of sites with reads
+     */
+    @SuppressWarnings("unused")
+    public int getHitCount()
+    {
+        return sites.length;
+    }
+
+    /**
+     * @return index among all sites of the hit-th site with reads
+     */
+    @SuppressWarnings("unused")
+    public int getSite(final int hit)
+    {
+        return sites[hit];
+    }
+
+    @SuppressWarnings("unused")
+    public double getReads(final int hit)
+    {
+        return reads[hit];
+    }
+
+    /**
+     * @param newReads a read count for every hit, in hit order. Not copied.
+     * @return the same sites holding newReads instead. Hits whose new count is zero are still kept as hits.
+     */
+    public SparseReads withHitReads(final double[] newReads)
+    {
+        if (newReads.length != reads.length)
+        {
+            throw new IllegalArgumentException("Expected " + reads.length + " reads, got " + newReads.length);
+        }
+        return new SparseReads(siteCount, sites, newReads);
+    }
+
+    /**
+     * @param dst array of at least {@link #getSiteCount()} reads. Overwritten with the read count of every site.
+     * @return dst
+     */
+    public double[] toDense(final double[] dst)
+    {
+        Arrays.fill(dst, 0, siteCount, 0);
+        for (int hit = 0; hit < sites.length; ++hit)
+        {
+            dst[sites[hit]] = reads[hit];
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,216 @@
+package org.machinery.futility.analysis.structs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Precomputed minimum, maximum, sum and count of a track's reads over bins of positions, at a ladder of
+ * resolutions: the finest level has bins {@link #BASE_WIDTH} positions wide, and each level above it merges pairs
+ * of bins from the one below, up to a single bin covering the whole track. A view of any range at any resolution
+ * can then be answered from the level closest to it, in time proportional to the number of bins shown rather than
+ * the number of records. Only views finer than the finest level go back to the records. Each of a track's contigs
+ * has its own ladder.
+ */
+public final class ZoomPyramid implements Serializable
+{
+    public static final int BASE_WIDTH = 128;
+    private static final long serialVersionUID = 7425016148530284373L;
+    // Per contig, the position at which bin 0 of every level starts, and the levels from finest to coarsest.
+    private final int[] origins;
+    private final Level[][] levels;
+
+    private ZoomPyramid(final int[] origins, final Level[][] levels)
+    {
+        this.origins = origins;
+        this.levels = levels;
+    }
+
+    public static ZoomPyramid build(final IgvTrack track)
+    {
+        final int[] origins = new int[track.getContigCount()];
+        final Level[][] levels = new Level[origins.length][];
+        for (int c = 0; c < origins.length; ++c)
+        {
+            final int from = track.getContigFrom(c);
+            final int to = track.getContigTo(c);
+            if (from == to)
+            {
+                levels[c] = new Level[]{new Level(BASE_WIDTH, 0)};
+                continue;
+            }
+            int minStart = Integer.MAX_VALUE;
+            int maxStart = Integer.MIN_VALUE;
+            for (int i = from; i < to; ++i)
+            {
+                minStart = Math.min(minStart, track.getStart(i));
+                maxStart = Math.max(maxStart, track.getStart(i));
+            }
+            final int origin = (int) Math.floorDiv((long) minStart, BASE_WIDTH) * BASE_WIDTH;
+            final Level base = new Level(BASE_WIDTH, (int) (((long) maxStart - origin) / BASE_WIDTH + 1));
+            for (int i = from; i < to; ++i)
+            {
+                base.add((int) (((long) track.getStart(i) - origin) / BASE_WIDTH), track.getReads(i));
+            }
+            Level[] contigLevels = {base};
+            while (contigLevels[contigLevels.length - 1].size() > 1)
+            {
+                final Level merged = contigLevels[contigLevels.length - 1].halve();
+                contigLevels = Arrays.copyOf(contigLevels, contigLevels.length + 1);
+                contigLevels[contigLevels.length - 1] = merged;
+            }
+            origins[c] = origin;
+            levels[c] = contigLevels;
+        }
+        return new ZoomPyramid(origins, levels);
+    }
+
+    /**
+     * Bins the track's only contig; see {@link #bins(IgvTrack, int, int, int, int)}.
+     * @throws IllegalStateException if the track has several contigs
+     */
+    public ReadBins bins(final IgvTrack track, final int start, final int end, final int binCount)
+    {
+        return bins(track, track.getOnlyContig(), start, end, binCount);
+    }
+
+    /**
+     * Aggregates reads into bins covering [start, end), aiming for binCount bins. Bins come from the coarsest
+     * precomputed level no wider than (end - start) / binCount, so they're aligned to that level: the first bin may
+     * start before start, the last may end after end, and there may be up to about twice as many bins as asked for.
+     * Ranges wider than the coarsest level get bins doubled from it until they're about as wide as asked for, so
+     * the bin count stays bounded however far the range reaches past the data.
+     * Views finer than {@link #BASE_WIDTH} get bins of exactly the requested width, starting at start, computed from
+     * the records. Either way, every bin covers its whole width.
+     * @param track the track this pyramid was built from
+     * @param contig id of the contig within track
+     */
+    public ReadBins bins(final IgvTrack track, final int contig, final int start, final int end, final int binCount)
+    {
+        if (end <= start || binCount < 1)
+        {
+            throw new IllegalArgumentException("Cannot split [" + start + ", " + end + ") into " + binCount + " bins");
+        }
+        final long requestedWidth = Math.max(1, ((long) end - start + binCount - 1) / binCount);
+        if (requestedWidth < BASE_WIDTH)
+        {
+            return binRecords(track, contig, start, end, (int) requestedWidth);
+        }
+        final int origin = origins[contig];
+        final Level[] levels = this.levels[contig];
+        int level = 0;
+        while (level + 1 < levels.length && levels[level + 1].width <= requestedWidth)
+        {
+            ++level;
+        }
+        final Level chosen = levels[level];
+        // Levels above the coarsest one are only virtual: its single bin holds the whole contig, so the bin of a wider
+        // level starting at the origin holds the same, and every other bin is empty.
+        long width = chosen.width;
+        while (level == levels.length - 1 && 2 * width <= requestedWidth)
+        {
+            width *= 2;
+        }
+        final long first = Math.floorDiv((long) start - origin, width);
+        final long last = Math.floorDiv((long) end - 1 - origin, width);
+        final int size = (int) (last - first + 1);
+        final double[] mins = new double[size];
+        final double[] maxes = new double[size];
+        final double[] sums = new double[size];
+        final int[] counts = new int[size];
+        for (int i = 0; i < size; ++i)
+        {
+            final long bin = width == chosen.width ? first + i : first + i == 0 ? 0 : -1;
+            if (bin >= 0 && bin < chosen.size())
+            {
+                mins[i] = chosen.mins[(int) bin];
+                maxes[i] = chosen.maxes[(int) bin];
+                sums[i] = chosen.sums[(int) bin];
+                counts[i] = chosen.counts[(int) bin];
+            }
+            else
+            {
+                mins[i] = Double.NaN;
+                maxes[i] = Double.NaN;
+            }
+        }
+        return new ReadBins((int) (origin + first * width), width, mins, maxes, sums, counts);
+    }
+
+    private static ReadBins binRecords(final IgvTrack track, final int contig, final int start, final int end,
+                                       final int width)
+    {
+        final int size = (int) (((long) end - start + width - 1) / width);
+        final double[] mins = new double[size];
+        final double[] maxes = new double[size];
+        Arrays.fill(mins, Double.NaN);
+        Arrays.fill(maxes, Double.NaN);
+        final double[] sums = new double[size];
+        final int[] counts = new int[size];
+        // The last bin may reach past end; it's filled in whole, like bins taken from the pyramid.
+        final int binnedEnd = (int) Math.min(Integer.MAX_VALUE, start + (long) size * width);
+        for (final int record : track.recordsStartingWithin(contig, start, binnedEnd))
+        {
+            final int bin = (int) (((long) track.getStart(record) - start) / width);
+            final double reads = track.getReads(record);
+            mins[bin] = counts[bin] == 0 ? reads : Math.min(mins[bin], reads);
+            maxes[bin] = counts[bin] == 0 ? reads : Math.max(maxes[bin], reads);
+            sums[bin] += reads;
+            ++counts[bin];
+        }
+        return new ReadBins(start, width, mins, maxes, sums, counts);
+    }
+
+    private static final class Level implements Serializable
+    {
+        private static final long serialVersionUID = -2947181906117343628L;
+        private final long width;
+        private final double[] mins;
+        private final double[] maxes;
+        private final double[] sums;
+        private final int[] counts;
+
+        private Level(final long width, final int size)
+        {
+            this.width = width;
+            this.mins = new double[size];
+            this.maxes = new double[size];
+            this.sums = new double[size];
+            this.counts = new int[size];
+            Arrays.fill(mins, Double.NaN);
+            Arrays.fill(maxes, Double.NaN);
+        }
+
+        private int size()
+        {
+            return counts.length;
+        }
+
+        private void add(final int bin, final double reads)
+        {
+            mins[bin] = counts[bin] == 0 ? reads : Math.min(mins[bin], reads);
+            maxes[bin] = counts[bin] == 0 ? reads : Math.max(maxes[bin], reads);
+            sums[bin] += reads;
+            ++counts[bin];
+        }
+
+        /**
+         * @return the level above this one, with bins twice as wide
+         */
+        private Level halve()
+        {
+            final Level merged = new Level(2 * width, (size() + 1) / 2);
+            for (int i = 0; i < size(); ++i)
+            {
+                final int bin = i / 2;
+                if (counts[i] > 0)
+                {
+                    merged.mins[bin] = merged.counts[bin] == 0 ? mins[i] : Math.min(merged.mins[bin], mins[i]);
+                    merged.maxes[bin] = merged.counts[bin] == 0 ? maxes[i] : Math.max(merged.maxes[bin], maxes[i]);
+                    merged.sums[bin] += sums[i];
+                    merged.counts[bin] += counts[i];
+                }
+            }
+            return merged;
+        }
+    }
+}
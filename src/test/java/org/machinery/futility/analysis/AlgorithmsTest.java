@@ -0,0 +1,177 @@
+package org.machinery.futility.analysis;
+
+import org.junit.Test;
+import org.machinery.futility.analysis.structs.Control;
+import org.machinery.futility.analysis.structs.Experiment;
+import org.machinery.futility.analysis.structs.GeneFeatureMeasurements;
+import org.machinery.futility.analysis.structs.Genome;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class AlgorithmsTest
+{
+    private static final String GENOME = "/baseline/genome.txt";
+    private static final String CONTROL = "/baseline/control.igv";
+    private static final String EXPERIMENT = "/baseline/experiment.igv";
+    private static final String EXPECTED = "/baseline/expected.tsv";
+    private static final long SEED = 7;
+
+    @Test
+    public void poolGivesTheSameFeaturesAsTheCallingThread() throws IOException, URISyntaxException
+    {
+        final Genome genome = analyzeGenome();
+        // Small chunks, so the pool parses the files in several pieces.
+        final AnalysisOptions serial = new AnalysisOptions.Builder().withSeed(SEED).withIngestChunkSize(4096).build();
+        final Map<String, GeneFeatureMeasurements> expected = analyzeExperiment(genome, serial);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            final AnalysisOptions parallel = serial.toBuilder().withPool(pool).build();
+            assertSameFeatures(expected, analyzeExperiment(genome, parallel));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compares against what the implementation the files were first analyzed with found. Its normalized reads were
+     * drawn at random, so only what doesn't depend on them is compared: which sites count toward which gene, the
+     * unnormalized experiment's reads, and the experiment's stats.
+     */
+    @Test
+    public void groupsReadsAsTheFirstImplementationDid() throws IOException
+    {
+        final Genome genome = analyzeGenome();
+        final AnalysisOptions options = new AnalysisOptions.Builder().withSeed(SEED).build();
+        final Control control;
+        try (InputStream in = resource(CONTROL))
+        {
+            control = Algorithms.analyzeControl("control", genome.getName(), in, options);
+        }
+        final Experiment experiment;
+        try (InputStream in = resource(EXPERIMENT))
+        {
+            experiment = Algorithms.analyzeExperiment("experiment", genome, control, in, options);
+        }
+        final Map<String, Integer> stats = new HashMap<>();
+        final Map<String, String[]> genes = new TreeMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource(EXPECTED),
+                StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final String[] fields = line.split("\t");
+                if ("stat".equals(fields[0]))
+                {
+                    stats.put(fields[1], Integer.parseInt(fields[2]));
+                }
+                else if ("gene".equals(fields[0]))
+                {
+                    genes.put(fields[1], fields);
+                }
+            }
+        }
+        for (final Map.Entry<String, Integer> stat : stats.entrySet())
+        {
+            assertEquals(stat.getKey(), stat.getValue(),
+                    experiment.getSequenceMeasurements().getStats().get(stat.getKey()));
+        }
+        assertGroupedAs(genes, experiment.getGeneFeatureMeasurements());
+        try (InputStream in = resource(EXPERIMENT))
+        {
+            // Streaming groups reads as they're parsed, without a track.
+            assertGroupedAs(genes, Algorithms.analyzeExperimentFeatures("experiment", genome, control, in, options));
+        }
+    }
+
+    /**
+     * @param genes expected fields of each gene, by name
+     */
+    private static void assertGroupedAs(final Map<String, String[]> genes,
+                                        final Map<String, GeneFeatureMeasurements> features)
+    {
+        assertEquals(genes.keySet(), new TreeMap<>(features).keySet());
+        for (final String[] gene : genes.values())
+        {
+            final GeneFeatureMeasurements feature = features.get(gene[1]);
+            assertEquals(gene[1], Integer.parseInt(gene[2]), feature.getNumTASites());
+            assertEquals(gene[1], Double.parseDouble(gene[3]), feature.getNumExperimentReads(), 0);
+            assertEquals(gene[1], Integer.parseInt(gene[4]), feature.getGeneLength());
+        }
+    }
+
+    private static Genome analyzeGenome() throws IOException
+    {
+        try (InputStream in = resource(GENOME))
+        {
+            return Algorithms.analyzeGenome("genome", in);
+        }
+    }
+
+    /**
+     * Analyzes the control and experiment from their files, which options may have parsed in parallel.
+     */
+    private static Map<String, GeneFeatureMeasurements> analyzeExperiment(final Genome genome,
+                                                                          final AnalysisOptions options)
+            throws IOException, URISyntaxException
+    {
+        final Control control;
+        try (FileChannel channel = FileChannel.open(path(CONTROL), StandardOpenOption.READ))
+        {
+            control = Algorithms.analyzeControl("control", genome.getName(), channel, options);
+        }
+        try (FileChannel channel = FileChannel.open(path(EXPERIMENT), StandardOpenOption.READ))
+        {
+            return Algorithms.analyzeExperiment("experiment", genome, control, channel, options)
+                    .getGeneFeatureMeasurements();
+        }
+    }
+
+    private static void assertSameFeatures(final Map<String, GeneFeatureMeasurements> expected,
+                                           final Map<String, GeneFeatureMeasurements> actual)
+    {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (final Map.Entry<String, GeneFeatureMeasurements> entry : expected.entrySet())
+        {
+            final String gene = entry.getKey();
+            final GeneFeatureMeasurements e = entry.getValue();
+            final GeneFeatureMeasurements a = actual.get(gene);
+            assertEquals(gene, e.getNumTASites(), a.getNumTASites());
+            assertEquals(gene, e.getGeneLength(), a.getGeneLength());
+            assertEquals(gene, e.getNumControlReads(), a.getNumControlReads(), 0);
+            assertEquals(gene, e.getNumExperimentReads(), a.getNumExperimentReads(), 0);
+            assertEquals(gene, e.getModifiedRatio(), a.getModifiedRatio(), 0);
+            assertEquals(gene, e.getP(), a.getP(), 0);
+            assertEquals(gene, e.getEssentialityIndex(), a.getEssentialityIndex(), 0);
+            assertEquals(gene, e.getFitness(), a.getFitness(), 0);
+        }
+    }
+
+    private static InputStream resource(final String name)
+    {
+        return AlgorithmsTest.class.getResourceAsStream(name);
+    }
+
+    private static Path path(final String name) throws URISyntaxException
+    {
+        return Paths.get(AlgorithmsTest.class.getResource(name).toURI());
+    }
+}
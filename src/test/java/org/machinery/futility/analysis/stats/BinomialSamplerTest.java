@@ -0,0 +1,91 @@
+package org.machinery.futility.analysis.stats;
+
+import org.apache.commons.math3.distribution.BinomialDistribution;
+import org.apache.commons.math3.stat.inference.ChiSquareTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinomialSamplerTest
+{
+    private static final int SAMPLES = 200000;
+    // Seeds are fixed, so this only fails if a change to the sampler skews it.
+    private static final double SIGNIFICANCE = 1e-3;
+    // Cells are merged until they expect at least this many draws, as the chi-square approximation needs.
+    private static final double MIN_EXPECTED = 5;
+
+    @Test
+    public void inversionMatchesTheBinomialDistribution()
+    {
+        assertDistributed(10, 0.2, 1);
+        assertDistributed(200, 0.01, 2);
+    }
+
+    @Test
+    public void samplesMatchTheBinomialDistributionEitherSideOfBtpe()
+    {
+        // Means of 30 are the last drawn by inversion; the second of each pair is drawn by BTPE.
+        assertDistributed(60, 0.5, 3);
+        assertDistributed(61, 0.5, 4);
+        assertDistributed(100, 0.3, 5);
+        assertDistributed(101, 0.3, 6);
+        assertDistributed(1000, 0.03, 7);
+        assertDistributed(1000, 0.031, 8);
+    }
+
+    @Test
+    public void btpeMatchesTheBinomialDistribution()
+    {
+        assertDistributed(500, 0.5, 9);
+        assertDistributed(100000, 0.01, 10);
+        assertDistributed(2000000, 0.45, 11);
+    }
+
+    @Test
+    public void degenerateProbabilitiesAreExact()
+    {
+        final SplittableRandom random = new SplittableRandom(12);
+        assertEquals(0, BinomialSampler.sample(50, 0, random));
+        assertEquals(50, BinomialSampler.sample(50, 1, random));
+        assertEquals(0, BinomialSampler.sample(0, 0.5, random));
+    }
+
+    private static void assertDistributed(final int n, final double p, final long seed)
+    {
+        final SplittableRandom random = new SplittableRandom(seed);
+        final long[] counts = new long[n + 1];
+        for (int i = 0; i < SAMPLES; ++i)
+        {
+            ++counts[BinomialSampler.sample(n, p, random)];
+        }
+        final BinomialDistribution distribution = new BinomialDistribution(null, n, p);
+        final double[] expected = new double[n + 1];
+        final long[] observed = new long[n + 1];
+        int cells = 0;
+        double cellExpected = 0;
+        long cellObserved = 0;
+        for (int x = 0; x <= n; ++x)
+        {
+            cellExpected += SAMPLES * distribution.probability(x);
+            cellObserved += counts[x];
+            if (cellExpected >= MIN_EXPECTED)
+            {
+                expected[cells] = cellExpected;
+                observed[cells] = cellObserved;
+                ++cells;
+                cellExpected = 0;
+                cellObserved = 0;
+            }
+        }
+        // The upper tail left over joins the last cell.
+        expected[cells - 1] += cellExpected;
+        observed[cells - 1] += cellObserved;
+        final double pValue = new ChiSquareTest().chiSquareTest(Arrays.copyOf(expected, cells),
+                Arrays.copyOf(observed, cells));
+        assertTrue("n=" + n + ", p=" + p + ": chi-square p-value " + pValue, pValue > SIGNIFICANCE);
+    }
+}
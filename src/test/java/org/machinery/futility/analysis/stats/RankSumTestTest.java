@@ -0,0 +1,115 @@
+package org.machinery.futility.analysis.stats;
+
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+
+public class RankSumTestTest
+{
+    private static final double TOLERANCE = 1e-12;
+    private static final int SAMPLE_PAIRS = 2000;
+
+    private final MannWhitneyUTest reference = new MannWhitneyUTest();
+
+    @Test
+    public void denseSamplesMatchCommonsMath()
+    {
+        final SplittableRandom random = new SplittableRandom(11);
+        // One test for every pair, so the scratch buffers are reused across sizes as they are for genes.
+        final RankSumTest test = new RankSumTest();
+        for (int i = 0; i < SAMPLE_PAIRS; ++i)
+        {
+            final double[] x = tieHeavy(random, 1 + random.nextInt(60), false);
+            final double[] y = tieHeavy(random, 1 + random.nextInt(60), false);
+            // Pad both sides, so the ranges are read in place rather than from the start of the arrays.
+            final double[] paddedX = pad(random, x);
+            final double[] paddedY = pad(random, y);
+            assertEquals(reference.mannWhitneyUTest(x, y),
+                    test.pValue(paddedX, 3, 3 + x.length, paddedY, 3, 3 + y.length), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void sparseSamplesMatchCommonsMathOnTheirZeros()
+    {
+        final SplittableRandom random = new SplittableRandom(12);
+        final RankSumTest test = new RankSumTest();
+        for (int i = 0; i < SAMPLE_PAIRS; ++i)
+        {
+            // Negative values check that the zeros are ranked between them and the positive ones.
+            final boolean negatives = i % 4 == 0;
+            final double[] x = tieHeavy(random, 1 + random.nextInt(60), negatives);
+            final double[] y = tieHeavy(random, 1 + random.nextInt(60), negatives);
+            final double[] storedX = withoutZeros(x);
+            final double[] storedY = withoutZeros(y);
+            final double[] paddedX = pad(random, storedX);
+            final double[] paddedY = pad(random, storedY);
+            assertEquals(reference.mannWhitneyUTest(x, y),
+                    test.pValue(paddedX, 3, 3 + storedX.length, x.length - storedX.length,
+                            paddedY, 3, 3 + storedY.length, y.length - storedY.length),
+                    TOLERANCE);
+        }
+    }
+
+    @Test
+    public void sparseSamplesOfOnlyZerosMatchCommonsMath()
+    {
+        final double[] x = new double[7];
+        final double[] y = {0, 0, 3, 3, 5};
+        final double[] storedY = {3, 3, 5};
+        assertEquals(reference.mannWhitneyUTest(x, y),
+                new RankSumTest().pValue(new double[0], 0, 0, x.length, storedY, 0, storedY.length, 2), TOLERANCE);
+    }
+
+    /**
+     * @return values drawn from a handful of small counts, many of them zero, as reads per site are
+     */
+    private static double[] tieHeavy(final SplittableRandom random, final int size, final boolean negatives)
+    {
+        final double[] values = new double[size];
+        for (int i = 0; i < size; ++i)
+        {
+            if (random.nextInt(3) != 0)
+            {
+                values[i] = random.nextInt(6);
+                if (negatives && values[i] != 0 && random.nextBoolean())
+                {
+                    values[i] = -values[i];
+                }
+            }
+        }
+        return values;
+    }
+
+    private static double[] withoutZeros(final double[] values)
+    {
+        final double[] stored = new double[values.length];
+        int count = 0;
+        for (final double value : values)
+        {
+            if (value != 0)
+            {
+                stored[count++] = value;
+            }
+        }
+        return Arrays.copyOf(stored, count);
+    }
+
+    /**
+     * @return values with three random values before them and two after
+     */
+    private static double[] pad(final SplittableRandom random, final double[] values)
+    {
+        final double[] padded = new double[values.length + 5];
+        for (int i = 0; i < padded.length; ++i)
+        {
+            padded[i] = random.nextInt(100);
+        }
+        System.arraycopy(values, 0, padded, 3, values.length);
+        return padded;
+    }
+}